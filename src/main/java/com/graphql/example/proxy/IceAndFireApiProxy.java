@@ -1,12 +1,21 @@
 package com.graphql.example.proxy;
 
+import com.graphql.example.util.ConcurrencyLimiter;
 import com.graphql.example.util.DataLoaderInstrumentation;
+import com.graphql.example.util.ExecutionTrace;
+import com.graphql.example.util.HttpClient;
 import com.graphql.example.util.JsonKit;
 import com.graphql.example.util.QueryParameters;
+import com.graphql.example.util.ResponseCache;
+import com.graphql.example.util.TraceExporter;
+import com.graphql.example.util.TrivialFieldExecutionStrategy;
 import graphql.ExecutionInput;
 import graphql.ExecutionResult;
 import graphql.GraphQL;
+import graphql.execution.AsyncExecutionStrategy;
+import graphql.execution.ExecutionStrategy;
 import graphql.execution.instrumentation.ChainedInstrumentation;
+import graphql.execution.instrumentation.Instrumentation;
 import graphql.execution.instrumentation.tracing.TracingInstrumentation;
 import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.RuntimeWiring;
@@ -22,14 +31,20 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static graphql.ExecutionInput.newExecutionInput;
 import static graphql.schema.idl.TypeRuntimeWiring.newTypeWiring;
-import static java.util.Arrays.asList;
 
 /**
  * An very simple example of serving a qraphql schema over http where it acts as a proxy to an existing REST API.
@@ -43,6 +58,45 @@ public class IceAndFireApiProxy extends AbstractHandler {
 
     static final int PORT = 3000;
 
+    static final int MAX_BODY_BYTES = Integer.getInteger("iceandfire.maxBodyBytes", 1024 * 1024);
+
+    //
+    // the concurrency limiter learns how many requests we can have in flight from the observed latency
+    // and these settings can be tweaked via system properties
+    static final int LIMIT_INITIAL = Integer.getInteger("iceandfire.limit.initial", 20);
+    static final int LIMIT_MIN = Integer.getInteger("iceandfire.limit.min", 4);
+    static final int LIMIT_MAX = Integer.getInteger("iceandfire.limit.max", 200);
+    static final int LIMIT_TARGET_LATENCY_MS = Integer.getInteger("iceandfire.limit.targetLatencyMs", 2000);
+    static final int DEEP_QUERY_NESTING = Integer.getInteger("iceandfire.limit.deepQueryNesting", 6);
+
+    private final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(
+            LIMIT_INITIAL, LIMIT_MIN, LIMIT_MAX, LIMIT_TARGET_LATENCY_MS);
+
+    //
+    // the whole response cache is optional and off unless turned on via system properties, since
+    // clients get responses up to the ttl old
+    static final boolean RESPONSE_CACHE_ENABLED = Boolean.parseBoolean(System.getProperty("iceandfire.responseCache.enabled", "false"));
+    static final long RESPONSE_CACHE_MAX_BYTES = Long.getLong("iceandfire.responseCache.maxBytes", 64 * 1024 * 1024);
+    static final long RESPONSE_CACHE_TTL_MS = Long.getLong("iceandfire.responseCache.ttlMs", 60_000);
+
+    private final ResponseCache responseCache = RESPONSE_CACHE_ENABLED
+            ? new ResponseCache(RESPONSE_CACHE_MAX_BYTES, RESPONSE_CACHE_TTL_MS) : null;
+
+    //
+    // tracing costs time on every field so it is off unless a client asks for it via a header or
+    // the request is sampled.  Sampled traces are exported to local files that trace viewers can load
+    static final String TRACE_HEADER = "X-Trace";
+    static final double TRACE_SAMPLE_RATE = Double.parseDouble(System.getProperty("iceandfire.trace.sampleRate", "0"));
+    static final String TRACE_DIR = System.getProperty("iceandfire.trace.dir", "traces");
+    static final long TRACE_MAX_FILE_BYTES = Long.getLong("iceandfire.trace.maxFileBytes", 10 * 1024 * 1024);
+    static final int TRACE_MAX_FILES = Integer.getInteger("iceandfire.trace.maxFiles", 5);
+
+    private final TraceExporter traceExporter = new TraceExporter(new File(TRACE_DIR), TRACE_MAX_FILE_BYTES, TRACE_MAX_FILES);
+
+    //
+    // every request builds the same schema so one strategy can remember which fields are trivial
+    private final TrivialFieldExecutionStrategy trivialFieldExecutionStrategy = new TrivialFieldExecutionStrategy();
+
     public static void main(String[] args) throws Exception {
         //
         // This example uses Jetty as an embedded HTTP server
@@ -59,6 +113,8 @@ public class IceAndFireApiProxy extends AbstractHandler {
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
         if ("/graphql".equals(target) || "/".equals(target)) {
             handleGraphql(request, response);
+        } else if ("/metrics".equals(target)) {
+            handleMetrics(response);
         }
         baseRequest.setHandled(true);
     }
@@ -67,7 +123,14 @@ public class IceAndFireApiProxy extends AbstractHandler {
         log.info("Handling graphql request...");
         //
         // this builds out the parameters we need like the graphql query from the http request
-        QueryParameters parameters = QueryParameters.from(httpRequest);
+        QueryParameters parameters;
+        try {
+            parameters = QueryParameters.from(httpRequest, MAX_BODY_BYTES);
+        } catch (QueryParameters.BodyTooLargeException e) {
+            log.info(e.getMessage());
+            httpResponse.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
         if (parameters.getQuery() == null) {
             //
             // how to handle nonsensical requests is up to your application
@@ -75,13 +138,52 @@ public class IceAndFireApiProxy extends AbstractHandler {
             return;
         }
 
+        //
+        // if we have seen this exact query recently then we can just copy out the
+        // response bytes we kept from last time.  This is cheap so it happens before any load shedding
+        boolean traceRequested = "true".equalsIgnoreCase(httpRequest.getHeader(TRACE_HEADER));
+        String cacheKey = null;
+        if (responseCache != null && !traceRequested) {
+            cacheKey = ResponseCache.cacheKey(parameters);
+            ResponseCache.CachedResponse cachedResponse = responseCache.get(cacheKey);
+            if (cachedResponse != null) {
+                returnCached(httpRequest, httpResponse, cachedResponse);
+                return;
+            }
+        }
+
+        //
+        // shed load straight away if we are over the learnt concurrency limit.  Queueing it
+        // would only make every other request slower
+        ConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire(queryPriority(parameters.getQuery()));
+        if (permit == null) {
+            log.info("Shedding graphql request - {} in flight", concurrencyLimiter.getInFlight());
+            httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            httpResponse.setHeader("Retry-After", "1");
+            return;
+        }
+        boolean success = false;
+        try {
+            executeGraphql(parameters, cacheKey, traceRequested, httpRequest, httpResponse);
+            success = true;
+        } finally {
+            permit.release(success);
+        }
+    }
+
+    private void executeGraphql(QueryParameters parameters, String cacheKey, boolean traceRequested, HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
         ExecutionInput.Builder executionInput = newExecutionInput()
                 .query(parameters.getQuery())
                 .operationName(parameters.getOperationName())
                 .variables(parameters.getVariables());
 
 
-        IceAndFireDataFetchers iceAndFireDataFetchers = new IceAndFireDataFetchers();
+        ExecutionTrace trace = null;
+        if (traceRequested || ThreadLocalRandom.current().nextDouble() < TRACE_SAMPLE_RATE) {
+            trace = new ExecutionTrace(parameters.getOperationName() == null ? "graphql" : parameters.getOperationName());
+        }
+
+        IceAndFireDataFetchers iceAndFireDataFetchers = new IceAndFireDataFetchers(trace);
 
         //
         // you need a schema in order to execute queries
@@ -98,29 +200,129 @@ public class IceAndFireApiProxy extends AbstractHandler {
         // we can combine multiple instrumentations together, for example to do tracing of
         // how long the request takes
         //
-        ChainedInstrumentation chainedInstrumentation = new ChainedInstrumentation(
-                asList(
-                        new TracingInstrumentation(),
-                        dataLoaderInstrumentation
-                )
-        );
+        List<Instrumentation> instrumentations = new ArrayList<>();
+        if (trace != null) {
+            instrumentations.add(new TracingInstrumentation());
+        }
+        instrumentations.add(dataLoaderInstrumentation);
+        ChainedInstrumentation chainedInstrumentation = new ChainedInstrumentation(instrumentations);
+
+        //
+        // most fields are plain lookups in the upstream json so we resolve those in one pass, unless
+        // we are tracing where we want every field to go through the instrumentation
+        ExecutionStrategy executionStrategy = trace == null ? trivialFieldExecutionStrategy : new AsyncExecutionStrategy();
 
         // finally you build a runtime graphql object and execute the query
         GraphQL graphQL = GraphQL
                 .newGraphQL(schema)
+                .queryExecutionStrategy(executionStrategy)
                 // instrumentation is pluggable
                 .instrumentation(chainedInstrumentation)
                 .build();
+        if (trace != null) {
+            trace.startExecution();
+        }
         ExecutionResult executionResult = graphQL.execute(executionInput.build());
 
-        returnAsJson(httpResponse, executionResult);
+        if (trace != null) {
+            trace.addSpan("execute", "graphql", trace.getExecutionStartNanos(), System.nanoTime(), Collections.emptyMap());
+            trace.addTracingExtension(executionResult.getExtensions().get("tracing"));
+            traceExporter.export(trace);
+        }
+
+        if (cacheKey != null && isCacheable(executionResult)) {
+            byte[] json = JsonKit.toJsonBytes(executionResult.toSpecification());
+            returnCached(httpRequest, httpResponse, responseCache.put(cacheKey, json));
+        } else {
+            returnAsJson(httpResponse, toSpecification(executionResult, traceRequested));
+        }
+    }
+
+    //
+    // sampled traces go to the trace files and only clients that asked for tracing get it in the response
+    //
+    private Map<String, Object> toSpecification(ExecutionResult executionResult, boolean includeTracing) {
+        Map<String, Object> specification = executionResult.toSpecification();
+        if (includeTracing || executionResult.getExtensions() == null || !executionResult.getExtensions().containsKey("tracing")) {
+            return specification;
+        }
+        Map<Object, Object> extensions = new LinkedHashMap<>(executionResult.getExtensions());
+        extensions.remove("tracing");
+        specification = new LinkedHashMap<>(specification);
+        if (extensions.isEmpty()) {
+            specification.remove("extensions");
+        } else {
+            specification.put("extensions", extensions);
+        }
+        return specification;
+    }
+
+    //
+    // errors might be transient and tracing is specific to one execution so
+    // neither of those are worth keeping
+    //
+    private boolean isCacheable(ExecutionResult executionResult) {
+        boolean hasErrors = executionResult.getErrors() != null && !executionResult.getErrors().isEmpty();
+        boolean hasTracing = executionResult.getExtensions() != null && executionResult.getExtensions().containsKey("tracing");
+        return !hasErrors && !hasTracing;
+    }
+
+
+    //
+    // deeply nested queries fan out into many upstream calls so we treat them as low
+    // priority.  Counting brace nesting is crude but its cheap and needs no parsing
+    //
+    static ConcurrencyLimiter.Priority queryPriority(String query) {
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '{') {
+                depth++;
+                maxDepth = Math.max(maxDepth, depth);
+            } else if (c == '}') {
+                depth--;
+            }
+        }
+        return maxDepth > DEEP_QUERY_NESTING ? ConcurrencyLimiter.Priority.LOW : ConcurrencyLimiter.Priority.HIGH;
     }
 
+    private void handleMetrics(HttpServletResponse response) throws IOException {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("concurrencyLimiter", concurrencyLimiter.getMetrics());
+        metrics.put("httpClient", HttpClient.getMetrics());
+        if (responseCache != null) {
+            metrics.put("responseCache", responseCache.getMetrics());
+        }
+        metrics.put("traceExporter", traceExporter.getMetrics());
 
-    private void returnAsJson(HttpServletResponse response, ExecutionResult executionResult) throws IOException {
         response.setContentType("application/json");
         response.setStatus(HttpServletResponse.SC_OK);
-        JsonKit.toJson(response, executionResult.toSpecification());
+        JsonKit.toJson(response, metrics);
+    }
+
+    private void returnCached(HttpServletRequest request, HttpServletResponse response, ResponseCache.CachedResponse cachedResponse) throws IOException {
+        response.setHeader("ETag", cachedResponse.getEtag());
+        response.setHeader("Vary", "Accept-Encoding");
+        if (cachedResponse.isMatchedBy(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        byte[] body = cachedResponse.getJson();
+        if (ResponseCache.acceptsGzip(request.getHeader("Accept-Encoding"))) {
+            response.setHeader("Content-Encoding", "gzip");
+            body = cachedResponse.getGzippedJson();
+        }
+        response.setContentType("application/json");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private void returnAsJson(HttpServletResponse response, Map<String, Object> specification) throws IOException {
+        response.setContentType("application/json");
+        response.setStatus(HttpServletResponse.SC_OK);
+        JsonKit.toJson(response, specification);
     }
 
     static TypeDefinitionRegistry definitionRegistry;
@@ -147,12 +349,19 @@ public class IceAndFireApiProxy extends AbstractHandler {
                         .dataFetcher("books", iceAndFireDataFetchers.books())
                         .dataFetcher("characters", iceAndFireDataFetchers.characters())
                         .dataFetcher("houses", iceAndFireDataFetchers.houses())
+                        .dataFetcher("node", iceAndFireDataFetchers.node())
+                        .dataFetcher("nodes", iceAndFireDataFetchers.nodes())
+                )
+                .type(newTypeWiring("Node")
+                        .typeResolver(iceAndFireDataFetchers.nodeTypeResolver())
                 )
                 .type(newTypeWiring("Book")
+                        .dataFetcher("id", iceAndFireDataFetchers.id())
                         .dataFetcher("characters", iceAndFireDataFetchers.urlConnection())
                         .dataFetcher("povCharacters", iceAndFireDataFetchers.urlConnection())
                 )
                 .type(newTypeWiring("Character")
+                        .dataFetcher("id", iceAndFireDataFetchers.id())
                         .dataFetcher("father", iceAndFireDataFetchers.urlObject())
                         .dataFetcher("mother", iceAndFireDataFetchers.urlObject())
                         .dataFetcher("spouse", iceAndFireDataFetchers.urlObject())
@@ -161,6 +370,7 @@ public class IceAndFireApiProxy extends AbstractHandler {
                         .dataFetcher("povBooks", iceAndFireDataFetchers.urlConnection())
                 )
                 .type(newTypeWiring("House")
+                        .dataFetcher("id", iceAndFireDataFetchers.id())
                         .dataFetcher("currentLord", iceAndFireDataFetchers.urlObject())
                         .dataFetcher("founder", iceAndFireDataFetchers.urlObject())
                         .dataFetcher("overload", iceAndFireDataFetchers.urlObject())
@@ -1,13 +1,17 @@
 package com.graphql.example.proxy;
 
-import com.graphql.example.proxy.relay.ForwardOnlyFixedPagedDataSet;
+import com.graphql.example.proxy.relay.CountedConnection;
 import com.graphql.example.proxy.relay.PagedResult;
+import com.graphql.example.proxy.relay.RandomAccessFixedPagedDataSet;
+import com.graphql.example.util.ExecutionTrace;
 import com.graphql.example.util.HttpClient;
 import com.graphql.example.util.RelayUtils;
 import graphql.relay.Connection;
 import graphql.relay.Relay;
-import graphql.relay.SimpleListConnection;
 import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.TypeResolver;
 import org.dataloader.BatchLoader;
 import org.dataloader.DataLoader;
 import org.dataloader.impl.PromisedValues;
@@ -16,10 +20,13 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.graphql.example.util.HttpQueryParameter.qp;
 import static java.util.stream.Collectors.toList;
@@ -30,15 +37,25 @@ class IceAndFireDataFetchers {
 
     public static final int PAGE_SIZE = 50; // this is what they allow
 
+    static final int DEFAULT_FIRST_N = 10;
+
+    static final String API_URL_PREFIX = "https://www.anapioficeandfire.com/api/";
+
+    private static final Relay relay = new Relay();
+    private static final Map<String, Integer> lastPages = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> totalCounts = new ConcurrentHashMap<>();
+
+    private ExecutionTrace trace;
+
     private BatchLoader<String, Object> urlBatchLoader = urls -> {
 
         // The backing API does not have an API to get multiple resources
         // in one batch.  We just have a series of resource URLS instead.
         List<CompletionStage<Object>> resources = new ArrayList<>();
 
-        // but we can get them in parallel though via supplyAsync say
+        // but we can get them in parallel though via async http calls
         for (String url : urls) {
-            resources.add(CompletableFuture.supplyAsync(() -> HttpClient.readResourceUrl(url).getData()));
+            resources.add(HttpClient.readResourceUrlAsync(url, trace).thenApply(HttpClient.DataAndResponse::getData));
         }
 
         // wait for all of the values to complete via this PromisedValues helper
@@ -48,6 +65,13 @@ class IceAndFireDataFetchers {
 
     private DataLoader<String, Object> resourceDataLoader = new DataLoader<>(urlBatchLoader);
 
+    /**
+     * @param trace the trace to record upstream calls in or null if this request is not being traced
+     */
+    IceAndFireDataFetchers(ExecutionTrace trace) {
+        this.trace = trace;
+    }
+
     List<DataLoader<?, ?>> getDataLoaders() {
         return Collections.singletonList(resourceDataLoader);
     }
@@ -74,51 +98,139 @@ class IceAndFireDataFetchers {
 
 
             //
-            // SimpleListConnection.get() allows us to apply "pagination arguments"
+            // getConnection() allows us to apply "pagination arguments"
             // such as "first:N" and "after:xxx" so we get a smaller set of results
             // before we go off to the data loader and actually make HTTP calls
             // for that data.  There is no point getting ALL the resources if we only
             // want a small page of them
             //
-            // We can use SimpleListConnection in this case because the total set of possible edges
-            // is known from the field and we can get a subset of them
+            // The total set of possible edges is known from the field so we can treat it
+            // as a single page of data and get a subset of them
             //
-            Connection<String> urlConnection = new SimpleListConnection<>(allUrls).get(env);
+            Connection<String> urlConnection = RandomAccessFixedPagedDataSet.getConnection(env, DEFAULT_FIRST_N, allUrls);
 
             List<String> pagedUrls = RelayUtils.getEdgeNodes(urlConnection);
 
             CompletableFuture<List<Object>> resourceLoadsPromise = resourceDataLoader.loadMany(pagedUrls);
 
             return resourceLoadsPromise.thenApply(resourceList -> {
-                resourceList = resourceList.stream().map(this::addGlobalIds).collect(toList());
-                SimpleListConnection<Object> relayConnection = new SimpleListConnection<>(resourceList);
                 //
                 // Now make that list back into relay connection as expected but this time
-                // with a full object (read from REST) behind it
+                // with a full object (read from REST) behind each url edge.  The resources
+                // come back in the same order as the urls
                 //
-                return relayConnection.get(env);
+                Iterator<Object> resources = resourceList.iterator();
+                Connection<Object> relayConnection = RelayUtils.mapEdgeNodes(urlConnection, url -> resources.next());
+                return new CountedConnection<>(relayConnection.getEdges(), relayConnection.getPageInfo(), allUrls::size);
             });
         };
     }
 
-    private <R> R addGlobalIds(R resource) {
-        resource = addGlobalIdFromKey(resource, "url");
-        resource = addGlobalIdFromKey(resource, "name");
-        return resource;
+    /**
+     * Relay requires ids yet the REST API does not have them.  Rather than mutating every upstream
+     * resource map we compute a global id from the resource url only when the id field is actually
+     * asked for.
+     *
+     * @return a data fetcher that returns a relay global id
+     */
+    DataFetcher id() {
+        return env -> globalId(env.getSource());
     }
 
-    private <R> R addGlobalIdFromKey(R resource, String srcKey) {
-        if (resource instanceof Map) {
-            Map resourceMap = (Map) resource;
-            if (!resourceMap.containsKey("id")) {
-                Object value = resourceMap.get(srcKey);
-                if (value != null) {
-                    //noinspection unchecked
-                    resourceMap.put("id", new Relay().toGlobalId(srcKey, value.toString()));
-                }
+    static String globalId(Map<String, Object> resource) {
+        Object url = resource.get("url");
+        if (url != null) {
+            return relay.toGlobalId("url", url.toString());
+        }
+        Object name = resource.get("name");
+        return name == null ? null : relay.toGlobalId("name", name.toString());
+    }
+
+    /**
+     * Relay global ids are derived from the resource url so a node can be refetched
+     * directly via the data loader, which means one cached lookup rather than scanning pages.
+     *
+     * @return a data fetcher for the relay 'node(id:)' field
+     */
+    DataFetcher node() {
+        return env -> {
+            String url = resourceUrlFromGlobalId(env.getArgument("id"));
+            if (url == null) {
+                return null;
             }
+            return resourceDataLoader.load(url).thenApply(IceAndFireDataFetchers::asNode);
+        };
+    }
+
+    DataFetcher nodes() {
+        return env -> {
+            List<String> ids = env.getArgument("ids");
+            List<String> urls = ids.stream().map(IceAndFireDataFetchers::resourceUrlFromGlobalId).collect(toList());
+            List<String> validUrls = urls.stream().filter(Objects::nonNull).collect(toList());
+
+            return resourceDataLoader.loadMany(validUrls).thenApply(resourceList -> {
+                //
+                // the resources come back in the same order as the valid urls
+                Iterator<Object> resources = resourceList.iterator();
+                List<Object> nodes = new ArrayList<>();
+                for (String url : urls) {
+                    nodes.add(url == null ? null : asNode(resources.next()));
+                }
+                return nodes;
+            });
+        };
+    }
+
+    //
+    // anything that came back without one of our resource urls is not a node we can
+    // resolve the type of, so it is a null node rather than an execution error
+    private static Object asNode(Object resource) {
+        if (!(resource instanceof Map)) {
+            return null;
+        }
+        Object url = ((Map<?, ?>) resource).get("url");
+        return url != null && typeNameFromUrl(url.toString()) != null ? resource : null;
+    }
+
+    TypeResolver nodeTypeResolver() {
+        return env -> {
+            //noinspection unchecked
+            Map<String, Object> resource = (Map<String, Object>) env.getObject();
+            String typeName = typeNameFromUrl(String.valueOf(resource.get("url")));
+            return typeName == null ? null : (GraphQLObjectType) env.getSchema().getType(typeName);
+        };
+    }
+
+    //
+    // only ids that decode to one of our upstream resource urls are allowed otherwise
+    // clients could make us fetch any url they like.  Name based ids cant be refetched
+    // since the upstream API has no cheap lookup by name
+    //
+    static String resourceUrlFromGlobalId(String globalId) {
+        Relay.ResolvedGlobalId resolvedGlobalId;
+        try {
+            resolvedGlobalId = relay.fromGlobalId(globalId);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        String url = resolvedGlobalId.getId();
+        if (!"url".equals(resolvedGlobalId.getType()) || typeNameFromUrl(url) == null) {
+            return null;
+        }
+        return url;
+    }
+
+    private static String typeNameFromUrl(String url) {
+        if (url.startsWith(API_URL_PREFIX + "books/")) {
+            return "Book";
+        }
+        if (url.startsWith(API_URL_PREFIX + "characters/")) {
+            return "Character";
         }
-        return resource;
+        if (url.startsWith(API_URL_PREFIX + "houses/")) {
+            return "House";
+        }
+        return null;
     }
 
     DataFetcher urlObject() {
@@ -132,37 +244,35 @@ class IceAndFireDataFetchers {
     }
 
     DataFetcher books() {
-        return env ->
-                CompletableFuture.supplyAsync(() ->
-                        ForwardOnlyFixedPagedDataSet.getConnection(env, PAGE_SIZE,
-                                pageNumber -> readPagedObjects("books", pageNumber)));
+        return env -> resourceConnection(env, "books");
     }
 
     DataFetcher houses() {
-        return env ->
-                CompletableFuture.supplyAsync(() ->
-                        ForwardOnlyFixedPagedDataSet.getConnection(env, PAGE_SIZE,
-                                pageNumber -> readPagedObjects("houses", pageNumber)));
+        return env -> resourceConnection(env, "houses");
     }
 
     DataFetcher characters() {
-        return env ->
-                CompletableFuture.supplyAsync(() ->
-                        ForwardOnlyFixedPagedDataSet.getConnection(env, PAGE_SIZE,
-                                pageNumber -> readPagedObjects("characters", pageNumber)));
+        return env -> resourceConnection(env, "characters");
+    }
+
+    private CompletableFuture<Connection<Map<String, Object>>> resourceConnection(DataFetchingEnvironment env, String resource) {
+        return CompletableFuture.supplyAsync(() ->
+                RandomAccessFixedPagedDataSet.getConnection(env, PAGE_SIZE, DEFAULT_FIRST_N,
+                        pageNumber -> readPagedObjects(resource, pageNumber),
+                        () -> totalCount(resource)));
     }
 
     private PagedResult<Map<String, Object>> readPagedObjects(String resource, int pageNumber) {
         log.info("Fetching {} page: {}", resource, pageNumber);
         PagedResult<Map<String, Object>> pagedResult =
-                HttpClient.readResource(resource, qp("pageNumber", pageNumber), qp("pageSize", PAGE_SIZE));
+                HttpClient.readResource(resource, trace, qp("page", pageNumber), qp("pageSize", PAGE_SIZE));
 
         log.info("\tread {} {}", pagedResult.getResults().size(), resource);
 
+        if (pagedResult.getLastPage() > 0) {
+            lastPages.put(resource, pagedResult.getLastPage());
+        }
         pagedResult.getResults().forEach(resourceObj -> {
-            //
-            // this is mutative since relay requires ids yet the REST API does not have them
-            addGlobalIds(resourceObj);
             String url = (String) resourceObj.get("url");
             //
             // prime the dataloader with each entry so caching should work when     we ask for it again
@@ -171,6 +281,30 @@ class IceAndFireDataFetchers {
         return pagedResult;
     }
 
+    //
+    // every page is PAGE_SIZE long bar the last one so the total is known once we
+    // have read the last page.  The upstream data set is static so we only ever
+    // need to work this out once per resource
+    //
+    private Integer totalCount(String resource) {
+        Integer totalCount = totalCounts.get(resource);
+        if (totalCount == null) {
+            Integer lastPage = lastPages.get(resource);
+            if (lastPage == null) {
+                PagedResult<Map<String, Object>> firstPage = readPagedObjects(resource, 1);
+                lastPage = Math.max(1, firstPage.getLastPage());
+                if (lastPage == 1) {
+                    totalCount = firstPage.getResults().size();
+                }
+            }
+            if (totalCount == null) {
+                totalCount = (lastPage - 1) * PAGE_SIZE + readPagedObjects(resource, lastPage).getResults().size();
+            }
+            totalCounts.put(resource, totalCount);
+        }
+        return totalCount;
+    }
+
     private static <T> T mapGet(Map<String, Object> source, String fieldName) {
         //noinspection unchecked
         return (T) source.get(fieldName);
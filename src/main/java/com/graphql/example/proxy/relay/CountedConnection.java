@@ -0,0 +1,28 @@
+package com.graphql.example.proxy.relay;
+
+import graphql.relay.DefaultConnection;
+import graphql.relay.Edge;
+import graphql.relay.PageInfo;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A relay connection that also knows the total number of edges in the underlying data set.
+ *
+ * The total is only computed if the 'totalCount' field is actually asked for since it
+ * can cost an extra upstream call to find out.
+ */
+public class CountedConnection<T> extends DefaultConnection<T> {
+
+    private final Supplier<Integer> totalCount;
+
+    public CountedConnection(List<Edge<T>> edges, PageInfo pageInfo, Supplier<Integer> totalCount) {
+        super(edges, pageInfo);
+        this.totalCount = totalCount;
+    }
+
+    public Integer getTotalCount() {
+        return totalCount.get();
+    }
+}
@@ -4,15 +4,22 @@ import java.util.List;
 
 /**
  * The results that come back from the page retrieval function need to tell us
- * the list of results and the whether their is a next page or not
+ * the list of results and the whether their is a next page or not and if known
+ * what the last page number is
  */
 public class PagedResult<T> {
     private final List<T> results;
     private final boolean hasNextPage;
+    private final int lastPage;
 
     public PagedResult(List<T> results, boolean hasNextPage) {
+        this(results, hasNextPage, 0);
+    }
+
+    public PagedResult(List<T> results, boolean hasNextPage, int lastPage) {
         this.results = results;
         this.hasNextPage = hasNextPage;
+        this.lastPage = lastPage;
     }
 
     public List<T> getResults() {
@@ -22,4 +29,11 @@ public class PagedResult<T> {
     public boolean hasNextPage() {
         return hasNextPage;
     }
+
+    /**
+     * @return the last page number or 0 if its not known
+     */
+    public int getLastPage() {
+        return lastPage;
+    }
 }
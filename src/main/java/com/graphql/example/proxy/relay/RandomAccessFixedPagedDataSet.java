@@ -0,0 +1,137 @@
+package com.graphql.example.proxy.relay;
+
+import graphql.relay.DefaultEdge;
+import graphql.relay.DefaultPageInfo;
+import graphql.relay.Edge;
+import graphql.schema.DataFetchingEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+//
+// If every page read has the same fixed number of items then the page holding any given item
+// can be computed directly from its position.  So rather than walking forward page by page from
+// the start we can jump straight to the pages we need, which gives us 'last' and 'before' support
+// for the cost of a single upstream call.
+//
+// Cursors are encoded as the page number (starting at 1) plus the offset of the item within that page.
+//
+
+public class RandomAccessFixedPagedDataSet {
+
+    /**
+     * Called to get a relay {@link graphql.relay.Connection} of edges where the underlying dataset
+     * is a set of fixed size pages of data that can be read in any order
+     *
+     * @param env                 the data fetching environment
+     * @param pageSize            the fixed number of items on every page bar the last
+     * @param defaultFirstN       the default number for the 'first' argument if neither 'first' nor 'last' is given,
+     *                            or for 'last' if 'before' is given
+     * @param pageOfDataRetriever the function to retrieve a page of data given a page number starting at 1
+     * @param totalCountSupplier  the function to find the total number of items, only called if really needed
+     *
+     * @return a connection according to the 'first', 'after', 'last' and 'before' arguments
+     */
+    public static <T> CountedConnection<T> getConnection(DataFetchingEnvironment env, int pageSize, int defaultFirstN, Function<Integer, PagedResult<T>> pageOfDataRetriever, Supplier<Integer> totalCountSupplier) {
+        Integer first = env.getArgument("first");
+        Integer last = env.getArgument("last");
+        String after = env.getArgument("after");
+        String before = env.getArgument("before");
+        if (first == null && last == null) {
+            //
+            // paging backwards from a cursor wants the items just before it, not the start of the set
+            if (before != null) {
+                last = defaultFirstN;
+            } else {
+                first = defaultFirstN;
+            }
+        }
+        if (first != null && first < 0) {
+            throw new IllegalArgumentException("You must provide a positive value for 'first'");
+        }
+        if (last != null && last < 0) {
+            throw new IllegalArgumentException("You must provide a positive value for 'last'");
+        }
+
+        //
+        // work out the [start,end) range of items wanted as per the relay pagination algorithm
+        int start = after == null ? 0 : toIndex(after, pageSize) + 1;
+        Integer end = before == null ? null : toIndex(before, pageSize);
+        if (first != null) {
+            end = end == null ? start + first : Math.min(end, start + first);
+        }
+        if (last != null) {
+            if (end == null) {
+                end = totalCountSupplier.get();
+            }
+            start = Math.max(start, end - last);
+        }
+        if (end <= start) {
+            return emptyConnection(totalCountSupplier);
+        }
+
+        List<Edge<T>> edges = new ArrayList<>();
+        boolean hasNextPage = false;
+        int lastPageNeeded = (end - 1) / pageSize + 1;
+        for (int page = start / pageSize + 1; page <= lastPageNeeded; page++) {
+            PagedResult<T> pagedResult = pageOfDataRetriever.apply(page);
+            List<T> results = pagedResult.getResults();
+
+            int pageStart = (page - 1) * pageSize;
+            int from = Math.max(start - pageStart, 0);
+            int to = Math.min(end - pageStart, results.size());
+            for (int offset = from; offset < to; offset++) {
+                edges.add(new DefaultEdge<>(results.get(offset), new CursorPageAndOffset(page, offset).toConnectionCursor()));
+            }
+
+            boolean endOfData = !pagedResult.hasNextPage() || results.size() < pageSize;
+            hasNextPage = to < results.size() || !endOfData;
+            if (endOfData) {
+                break;
+            }
+        }
+        if (edges.isEmpty()) {
+            return emptyConnection(totalCountSupplier);
+        }
+
+        return new CountedConnection<>(edges, new DefaultPageInfo(
+                edges.get(0).getCursor(),
+                edges.get(edges.size() - 1).getCursor(),
+                start > 0,
+                hasNextPage
+        ), totalCountSupplier);
+    }
+
+    /**
+     * Called to get a relay {@link graphql.relay.Connection} of edges from a list that is already in memory
+     *
+     * @param env           the data fetching environment
+     * @param defaultFirstN the default number for the 'first' argument if neither 'first' nor 'last' is given,
+     *                      or for 'last' if 'before' is given
+     * @param list          the complete list of items
+     *
+     * @return a connection according to the 'first', 'after', 'last' and 'before' arguments
+     */
+    public static <T> CountedConnection<T> getConnection(DataFetchingEnvironment env, int defaultFirstN, List<T> list) {
+        // the whole list is one page
+        int pageSize = Math.max(1, list.size());
+        return getConnection(env, pageSize, defaultFirstN,
+                page -> new PagedResult<>(page == 1 ? list : Collections.emptyList(), false),
+                list::size);
+    }
+
+    private static int toIndex(String cursor, int pageSize) {
+        CursorPageAndOffset pageAndOffset = CursorPageAndOffset.fromCursor(cursor);
+        if (pageAndOffset.getPage() < 1 || pageAndOffset.getOffset() >= pageSize) {
+            throw new IllegalArgumentException("Invalid paged cursor provided : " + cursor);
+        }
+        return (pageAndOffset.getPage() - 1) * pageSize + pageAndOffset.getOffset();
+    }
+
+    private static <T> CountedConnection<T> emptyConnection(Supplier<Integer> totalCountSupplier) {
+        return new CountedConnection<>(Collections.emptyList(), new DefaultPageInfo(null, null, false, false), totalCountSupplier);
+    }
+}
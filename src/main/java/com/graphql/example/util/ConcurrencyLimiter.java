@@ -0,0 +1,136 @@
+package com.graphql.example.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An adaptive concurrency limiter that learns how many requests can be in flight at once
+ * before latency starts to suffer.
+ *
+ * It uses AIMD (additive increase, multiplicative decrease) in the same way TCP congestion
+ * control does.  Every request that completes under the target latency grows the limit by a
+ * fraction and a request that is too slow (or fails) shrinks it by a fixed ratio.  When
+ * the upstream API slows down the limit quickly comes down and we shed the excess requests
+ * straight away rather than letting them queue up inside Jetty.
+ *
+ * Like TCP we back off once per congestion event rather than once per slow request.  When the
+ * upstream slows down every request in flight completes slowly, and backing off for each of
+ * them would take the limit straight down to the minimum.  So only requests admitted after the
+ * last back off can cause another one.
+ *
+ * Low priority requests (say deep fan out queries) are only admitted while there is head room
+ * under the limit so that cheap requests still get through when we are busy.
+ */
+public class ConcurrencyLimiter {
+
+    public enum Priority {
+        HIGH, LOW
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyMs;
+    private final double backoffRatio;
+    private final double lowPriorityShare;
+
+    private double limit;
+    private int inFlight;
+    private long admittedCount;
+    private long admittedAtLastBackoff;
+    private long shedCount;
+    private long shedLowPriorityCount;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatencyMs) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyMs = targetLatencyMs;
+        this.backoffRatio = 0.9;
+        this.lowPriorityShare = 0.75;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * A permit MUST be released once the request has completed
+     */
+    public class Permit {
+        private final long startMs = System.currentTimeMillis();
+        private final int inFlightAtStart;
+        private final long admittedNumber;
+        private boolean released;
+
+        private Permit(int inFlightAtStart, long admittedNumber) {
+            this.inFlightAtStart = inFlightAtStart;
+            this.admittedNumber = admittedNumber;
+        }
+
+        /**
+         * Releases the permit and feeds the observed latency back into the limit
+         *
+         * @param success false if the request failed in a way that indicates overload
+         */
+        public void release(boolean success) {
+            if (released) {
+                return;
+            }
+            released = true;
+            onComplete(this, System.currentTimeMillis() - startMs, success);
+        }
+    }
+
+    /**
+     * Tries to admit a request.
+     *
+     * @param priority the priority of the request
+     *
+     * @return a permit or null if the request should be shed
+     */
+    public synchronized Permit tryAcquire(Priority priority) {
+        double allowed = priority == Priority.HIGH ? limit : limit * lowPriorityShare;
+        if (inFlight >= Math.max(1, (int) allowed)) {
+            shedCount++;
+            if (priority == Priority.LOW) {
+                shedLowPriorityCount++;
+            }
+            return null;
+        }
+        inFlight++;
+        admittedCount++;
+        return new Permit(inFlight, admittedCount);
+    }
+
+    private synchronized void onComplete(Permit permit, long latencyMs, boolean success) {
+        inFlight--;
+        if (!success || latencyMs > targetLatencyMs) {
+            //
+            // requests that were already in flight at the last back off are part of the same
+            // congestion event and have been accounted for
+            if (permit.admittedNumber > admittedAtLastBackoff) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                admittedAtLastBackoff = admittedCount;
+            }
+        } else if (permit.inFlightAtStart * 2 >= limit) {
+            //
+            // only grow the limit if we are actually using it, otherwise a quiet
+            // period would let it drift up to the max regardless of upstream health
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("limit", (int) limit);
+        metrics.put("inFlight", inFlight);
+        metrics.put("admitted", admittedCount);
+        metrics.put("shed", shedCount);
+        metrics.put("shedLowPriority", shedLowPriorityCount);
+        return metrics;
+    }
+}
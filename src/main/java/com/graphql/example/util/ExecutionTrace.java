@@ -0,0 +1,156 @@
+package com.graphql.example.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the timed spans of one sampled graphql execution, such as field resolvers and
+ * upstream http calls, and turns them into events in the Chrome trace event format so
+ * they can be loaded into chrome://tracing or https://ui.perfetto.dev
+ *
+ * Only sampled requests get one of these, so unsampled requests pay nothing for tracing.
+ */
+public class ExecutionTrace {
+
+    private static final AtomicLong traceIds = new AtomicLong();
+
+    private final long traceId = traceIds.incrementAndGet();
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final long startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private final List<Span> spans = Collections.synchronizedList(new ArrayList<>());
+    private long executionStartNanos = startNanos;
+
+    private static class Span {
+        final String name;
+        final String category;
+        final long startNanos;
+        final long durationNanos;
+        final Map<String, Object> args;
+
+        Span(String name, String category, long startNanos, long durationNanos, Map<String, Object> args) {
+            this.name = name;
+            this.category = category;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.args = args;
+        }
+    }
+
+    public ExecutionTrace(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Marks the point where graphql execution starts, which is what resolver timings are relative to
+     */
+    public void startExecution() {
+        executionStartNanos = System.nanoTime();
+    }
+
+    public long getExecutionStartNanos() {
+        return executionStartNanos;
+    }
+
+    /**
+     * Adds a span to the trace
+     *
+     * @param name       the name of the span
+     * @param category   the category of the span, spans of the same category are shown together
+     * @param startNanos the start time as per {@link System#nanoTime()}
+     * @param endNanos   the end time as per {@link System#nanoTime()}
+     * @param args       extra information to show with the span
+     */
+    public void addSpan(String name, String category, long startNanos, long endNanos, Map<String, Object> args) {
+        spans.add(new Span(name, category, startNanos, endNanos - startNanos, args));
+    }
+
+    /**
+     * Adds the field resolver timings that {@link graphql.execution.instrumentation.tracing.TracingInstrumentation}
+     * puts into the result extensions.  Their offsets are relative to the start of execution.
+     *
+     * @param tracing the "tracing" extension value
+     */
+    public void addTracingExtension(Object tracing) {
+        if (!(tracing instanceof Map)) {
+            return;
+        }
+        Object execution = ((Map<?, ?>) tracing).get("execution");
+        Object resolvers = execution instanceof Map ? ((Map<?, ?>) execution).get("resolvers") : null;
+        if (!(resolvers instanceof List)) {
+            return;
+        }
+        for (Object resolver : (List<?>) resolvers) {
+            Map<?, ?> resolverMap = (Map<?, ?>) resolver;
+            long startOffset = ((Number) resolverMap.get("startOffset")).longValue();
+            long duration = ((Number) resolverMap.get("duration")).longValue();
+            Map<String, Object> args = new LinkedHashMap<>();
+            args.put("path", resolverMap.get("path"));
+            args.put("returnType", resolverMap.get("returnType"));
+            addSpan(resolverMap.get("parentType") + "." + resolverMap.get("fieldName"), "resolver",
+                    executionStartNanos + startOffset, executionStartNanos + startOffset + duration, args);
+        }
+    }
+
+    /**
+     * Each trace is shown as its own process and spans are packed into as few rows (threads) as
+     * possible such that spans in the same row never overlap
+     *
+     * @return the trace events
+     */
+    public List<Map<String, Object>> toTraceEvents() {
+        List<Span> sortedSpans;
+        synchronized (spans) {
+            sortedSpans = new ArrayList<>(spans);
+        }
+        sortedSpans.sort(Comparator.comparingLong(span -> span.startNanos));
+
+        List<Map<String, Object>> events = new ArrayList<>();
+        events.add(metadataEvent("process_name", 0, name));
+
+        Map<String, List<Long>> rowEndsByCategory = new LinkedHashMap<>();
+        Map<String, Integer> categoryIndexes = new LinkedHashMap<>();
+        for (Span span : sortedSpans) {
+            List<Long> rowEnds = rowEndsByCategory.computeIfAbsent(span.category, category -> new ArrayList<>());
+            int categoryIndex = categoryIndexes.computeIfAbsent(span.category, category -> categoryIndexes.size());
+            int row = 0;
+            while (row < rowEnds.size() && rowEnds.get(row) > span.startNanos) {
+                row++;
+            }
+            int tid = categoryIndex * 1000 + row;
+            if (row == rowEnds.size()) {
+                rowEnds.add(0L);
+                events.add(metadataEvent("thread_name", tid, span.category + " " + row));
+            }
+            rowEnds.set(row, span.startNanos + span.durationNanos);
+
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("name", span.name);
+            event.put("cat", span.category);
+            event.put("ph", "X");
+            event.put("ts", startEpochMicros + TimeUnit.NANOSECONDS.toMicros(span.startNanos - startNanos));
+            event.put("dur", Math.max(1, TimeUnit.NANOSECONDS.toMicros(span.durationNanos)));
+            event.put("pid", traceId);
+            event.put("tid", tid);
+            event.put("args", span.args);
+            events.add(event);
+        }
+        return events;
+    }
+
+    private Map<String, Object> metadataEvent(String name, int tid, String value) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("name", name);
+        event.put("ph", "M");
+        event.put("pid", traceId);
+        event.put("tid", tid);
+        event.put("args", Collections.singletonMap("name", value));
+        return event;
+    }
+}
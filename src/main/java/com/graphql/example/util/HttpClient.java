@@ -1,6 +1,10 @@
 package com.graphql.example.util;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.graphql.example.proxy.relay.PagedResult;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -10,7 +14,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.graphql.example.util.JsonKit.fromJson;
 
@@ -18,7 +39,87 @@ public class HttpClient {
 
     private static Logger log = LoggerFactory.getLogger(HttpClient.class);
 
-    private static OkHttpClient httpClient = new OkHttpClient();
+    //
+    // a slow upstream response holds up a whole data loader batch so we hedge reads that are slower
+    // than the observed percentile and retry transient failures.  Both hedges and retries draw on a shared
+    // budget which keeps the extra load we put on the upstream API to a fixed percentage
+    //
+    static final int HEDGE_PERCENTILE = Integer.getInteger("iceandfire.hedge.percentile", 95);
+    static final int HEDGE_MIN_DELAY_MS = Integer.getInteger("iceandfire.hedge.minDelayMs", 50);
+    static final int HEDGE_MIN_SAMPLES = 20;
+    static final int AMPLIFICATION_BUDGET_PERCENT = Integer.getInteger("iceandfire.hedge.budgetPercent", 10);
+    static final double AMPLIFICATION_BUDGET_MAX = 10;
+    static final int RETRY_MAX = Integer.getInteger("iceandfire.retry.max", 2);
+    static final int RETRY_BASE_BACKOFF_MS = Integer.getInteger("iceandfire.retry.baseBackoffMs", 100);
+
+    //
+    // the upstream API rate limits each client so we pace our calls rather than have bursts throttled
+    //
+    static final int UPSTREAM_RATE_PER_SECOND = Integer.getInteger("iceandfire.upstream.ratePerSecond", 50);
+    static final int UPSTREAM_BURST = Integer.getInteger("iceandfire.upstream.burst", UPSTREAM_RATE_PER_SECOND);
+    static final int UPSTREAM_WINDOW_MS = Integer.getInteger("iceandfire.upstream.windowMs", 100);
+    static final int UPSTREAM_DEFAULT_RETRY_AFTER_MS = 1000;
+
+    private static final Pattern lastPagePattern = Pattern.compile("[?&]page=([0-9]+)[^>]*>;\\s*rel=\"last\"");
+
+    //
+    // the one client that all the static read methods share
+    private static final HttpClient upstream = newUpstreamClient();
+
+    private final OkHttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final UpstreamRateLimiter rateLimiter;
+    private final LatencyTracker latencyTracker = new LatencyTracker(1000);
+    private final SingleFlight<String, DataAndResponse> upstreamReads = new SingleFlight<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private double amplificationBudget;
+
+    /**
+     * @param httpClient          the client that makes the upstream calls
+     * @param scheduler           runs the hedge timers and retry backoff
+     * @param rateLimiter         paces the upstream calls
+     * @param amplificationBudget how many hedges and retries can be made before any have been earned
+     */
+    HttpClient(OkHttpClient httpClient, ScheduledExecutorService scheduler, UpstreamRateLimiter rateLimiter, double amplificationBudget) {
+        this.httpClient = httpClient;
+        this.scheduler = scheduler;
+        this.rateLimiter = rateLimiter;
+        this.amplificationBudget = amplificationBudget;
+    }
+
+    private static HttpClient newUpstreamClient() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "http-client-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        UpstreamRateLimiter rateLimiter = new UpstreamRateLimiter(UPSTREAM_RATE_PER_SECOND, UPSTREAM_BURST, UPSTREAM_WINDOW_MS, scheduler);
+        return new HttpClient(newHttpClient(), scheduler, rateLimiter, AMPLIFICATION_BUDGET_MAX);
+    }
+
+    private static OkHttpClient newHttpClient() {
+        //
+        // the default dispatcher only allows 5 concurrent calls per host which is far too few
+        // when a data loader batch fans out over many resource urls
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(128);
+        dispatcher.setMaxRequestsPerHost(64);
+        return new OkHttpClient.Builder().dispatcher(dispatcher).build();
+    }
+
+    //
+    // a 429 from the upstream API, retrying it costs nothing from the amplification budget
+    // because the rate limiter holds the retry back until the upstream API is ready for it
+    private static class ThrottledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ThrottledException(String message) {
+            super(message);
+        }
+    }
 
     public static class DataAndResponse {
         private final Response response;
@@ -39,6 +140,20 @@ public class HttpClient {
     }
 
     public static <T> PagedResult<T> readResource(String resource, HttpQueryParameter... params) {
+        return readResource(resource, null, params);
+    }
+
+    /**
+     * Reads a page of a resource listing.  These wait behind data loader batches for the upstream rate limit
+     *
+     * @param resource the resource to list
+     * @param trace    the trace to add upstream http spans to or null if the request is not being traced
+     * @param params   the query parameters such as the page wanted
+     * @param <T>      the type of results
+     *
+     * @return the page of results
+     */
+    public static <T> PagedResult<T> readResource(String resource, ExecutionTrace trace, HttpQueryParameter... params) {
         HttpUrl.Builder urlBuilder = new HttpUrl.Builder();
         urlBuilder.scheme("https").host("www.anapioficeandfire.com").addPathSegment("api").addPathSegment(resource);
         if (params != null) {
@@ -48,10 +163,11 @@ public class HttpClient {
         }
 
         String url = urlBuilder.build().toString();
-        DataAndResponse dataAndResponse = readResourceUrl(url);
+        DataAndResponse dataAndResponse = readResourceUrl(url, UpstreamRateLimiter.Lane.PAGE, trace);
         //noinspection unchecked
         List<T> data = (List<T>) dataAndResponse.getData();
-        return new PagedResult<>(data, hasNext(dataAndResponse.getResponse()));
+        Response response = dataAndResponse.getResponse();
+        return new PagedResult<>(data, hasNext(response), lastPage(response));
     }
 
     //
@@ -61,35 +177,216 @@ public class HttpClient {
     // <https://www.anapioficeandfire.com/api/characters?page=1&pageSize=50>; rel="first",
     // <https://www.anapioficeandfire.com/api/characters?page=43&pageSize=50>; rel="last"
     //
-    // and if next is missing - there is no next
+    // and if next is missing - there is no next.  The last link tells us how many pages there are
     //
     private static boolean hasNext(Response response) {
         String linkHeader = response.header("Link");
         return linkHeader != null && linkHeader.contains("rel=\"next\"");
     }
 
+    private static int lastPage(Response response) {
+        String linkHeader = response.header("Link");
+        if (linkHeader == null) {
+            return 0;
+        }
+        Matcher matcher = lastPagePattern.matcher(linkHeader);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
     public static DataAndResponse readResourceUrl(String url) {
+        return readResourceUrl(url, null);
+    }
+
+    public static DataAndResponse readResourceUrl(String url, ExecutionTrace trace) {
+        return readResourceUrl(url, UpstreamRateLimiter.Lane.INTERACTIVE, trace);
+    }
+
+    private static DataAndResponse readResourceUrl(String url, UpstreamRateLimiter.Lane lane, ExecutionTrace trace) {
+        try {
+            return readResourceUrlAsync(url, lane, trace).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads a resource url asynchronously.  All the upstream resources are idempotent GETs so
+     * slow reads are hedged with a duplicate request and transient failures are retried
+     *
+     * @param url   the resource url to read
+     * @param trace the trace to add upstream http spans to or null if the request is not being traced
+     *
+     * @return a promise to the data and response
+     */
+    public static CompletableFuture<DataAndResponse> readResourceUrlAsync(String url, ExecutionTrace trace) {
+        return readResourceUrlAsync(url, UpstreamRateLimiter.Lane.INTERACTIVE, trace);
+    }
+
+    /**
+     * Reads a resource url asynchronously, waiting in the given lane for the upstream rate limit
+     *
+     * @param url   the resource url to read
+     * @param lane  the rate limiter lane to wait in
+     * @param trace the trace to add upstream http spans to or null if the request is not being traced
+     *
+     * @return a promise to the data and response
+     */
+    public static CompletableFuture<DataAndResponse> readResourceUrlAsync(String url, UpstreamRateLimiter.Lane lane, ExecutionTrace trace) {
+        return upstream.readAsync(url, lane, trace);
+    }
+
+    CompletableFuture<DataAndResponse> readAsync(String url, UpstreamRateLimiter.Lane lane, ExecutionTrace trace) {
         if (url == null || url.trim().isEmpty()) {
-            return new DataAndResponse(null, null);
+            return CompletableFuture.completedFuture(new DataAndResponse(null, null));
         }
         Request.Builder requestBuilder = new Request.Builder()
                 .url(url);
         Request request = requestBuilder
                 .build();
 
-        try {
-            return read(request);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        //
+        // concurrent queries often want the same resources at the same moment so they all
+        // share the one upstream read
+        long startNanos = System.nanoTime();
+        AtomicBoolean ledRead = new AtomicBoolean();
+        CompletableFuture<DataAndResponse> read = upstreamReads.execute(url, () -> {
+            ledRead.set(true);
+            requestCount.incrementAndGet();
+            depositBudget();
+            return readWithRetries(request, lane, trace, 0);
+        });
+        if (trace != null && !ledRead.get()) {
+            read.whenComplete((dataAndResponse, throwable) -> {
+                Map<String, Object> args = new LinkedHashMap<>();
+                args.put("url", url);
+                args.put("coalesced", true);
+                trace.addSpan("GET " + request.url().encodedPath(), "http", startNanos, System.nanoTime(), args);
+            });
         }
+        return read;
     }
 
-    private static DataAndResponse read(Request request) throws IOException {
+    private CompletableFuture<DataAndResponse> readWithRetries(Request request, UpstreamRateLimiter.Lane lane, ExecutionTrace trace, int attempt) {
+        CompletableFuture<DataAndResponse> result = new CompletableFuture<>();
+        readHedged(request, lane, trace).whenComplete((dataAndResponse, throwable) -> {
+            if (throwable == null) {
+                result.complete(dataAndResponse);
+            } else if (attempt < RETRY_MAX && (throwable instanceof ThrottledException || isTransient(throwable) && withdrawBudget())) {
+                retryCount.incrementAndGet();
+                long backoffMs = backoffMs(attempt);
+                log.info("Retrying {} in {} ms after : {}", request.url(), backoffMs, throwable.getMessage());
+                scheduler.schedule(() -> readWithRetries(request, lane, trace, attempt + 1).whenComplete((retried, retryThrowable) -> {
+                    if (retryThrowable == null) {
+                        result.complete(retried);
+                    } else {
+                        result.completeExceptionally(retryThrowable);
+                    }
+                }), backoffMs, TimeUnit.MILLISECONDS);
+            } else {
+                result.completeExceptionally(throwable);
+            }
+        });
+        return result;
+    }
 
-        log.info("Reading {}...", request.url());
-        Response response = httpClient.newCall(request).execute();
-        ResponseBody body = response.body();
+    private CompletableFuture<DataAndResponse> readHedged(Request request, UpstreamRateLimiter.Lane lane, ExecutionTrace trace) {
+        CompletableFuture<DataAndResponse> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+
+        CompletableFuture<Void> primarySent = enqueue(request, lane, trace, result, outstanding, false);
+
+        long hedgeDelayMs = hedgeDelayMs();
+        if (hedgeDelayMs >= 0) {
+            //
+            // the hedge delay comes from how long upstream calls take, so the timer only starts once the
+            // primary call has actually been sent.  Waiting on the rate limiter is not a slow upstream
+            primarySent.thenRun(() -> startHedgeTimer(request, trace, result, outstanding, hedgeDelayMs));
+        }
+        return result;
+    }
+
+    private void startHedgeTimer(Request request, ExecutionTrace trace, CompletableFuture<DataAndResponse> result, AtomicInteger outstanding, long hedgeDelayMs) {
+        ScheduledFuture<?> hedgeTimer = scheduler.schedule(() -> {
+            if (!result.isDone() && withdrawBudget()) {
+                hedgeCount.incrementAndGet();
+                outstanding.incrementAndGet();
+                log.info("Hedging {} after {} ms", request.url(), hedgeDelayMs);
+                //
+                // a hedge is optional extra load so it waits behind everything else for the rate limit
+                enqueue(request, UpstreamRateLimiter.Lane.BACKGROUND, trace, result, outstanding, true);
+            }
+        }, hedgeDelayMs, TimeUnit.MILLISECONDS);
+        result.whenComplete((dataAndResponse, throwable) -> hedgeTimer.cancel(false));
+    }
+
+    //
+    // the returned promise completes once the call has been handed to OkHttp
+    private CompletableFuture<Void> enqueue(Request request, UpstreamRateLimiter.Lane lane, ExecutionTrace trace, CompletableFuture<DataAndResponse> result, AtomicInteger outstanding, boolean hedge) {
+        long queuedNanos = System.nanoTime();
+        Call call = httpClient.newCall(request);
+        CompletableFuture<Void> permit = rateLimiter.acquire(lane);
+        result.whenComplete((dataAndResponse, throwable) -> {
+            permit.cancel(false);
+            call.cancel();
+        });
+        return permit.thenRun(() -> {
+            log.info("Reading {}...", request.url());
+            long startNanos = System.nanoTime();
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    failed(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try {
+                        DataAndResponse dataAndResponse = readBody(response);
+                        traceSpan(String.valueOf(response.code()));
+                        if (result.complete(dataAndResponse) && hedge) {
+                            hedgeWinCount.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failed(e);
+                    }
+                }
+
+                //
+                // whichever call answers first wins, so we only fail once every call has failed
+                private void failed(IOException e) {
+                    traceSpan(e.getMessage());
+                    if (outstanding.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                private void traceSpan(String outcome) {
+                    if (trace != null) {
+                        Map<String, Object> args = new LinkedHashMap<>();
+                        args.put("url", request.url().toString());
+                        args.put("outcome", outcome);
+                        args.put("hedge", hedge);
+                        args.put("queueWaitMs", TimeUnit.NANOSECONDS.toMillis(startNanos - queuedNanos));
+                        trace.addSpan("GET " + request.url().encodedPath(), "http", startNanos, System.nanoTime(), args);
+                    }
+                }
+            });
+        });
+    }
+
+    private DataAndResponse readBody(Response response) throws IOException {
         long ms = response.receivedResponseAtMillis() - response.sentRequestAtMillis();
+        if (response.code() == 429) {
+            long retryAfterMs = retryAfterMs(response);
+            rateLimiter.throttled(retryAfterMs);
+            response.close();
+            throw new ThrottledException("Upstream throttled " + response.request().url() + " for " + retryAfterMs + " ms");
+        }
+        if (response.code() >= 500) {
+            response.close();
+            throw new IOException("Upstream returned " + response.code() + " for " + response.request().url());
+        }
+        ResponseBody body = response.body();
 
         String jsonString = "";
         Object obj = null;
@@ -97,9 +394,83 @@ public class HttpClient {
             jsonString = body.string();
             obj = fromJson(jsonString);
         }
+        latencyTracker.record(ms);
 
         log.info("  {} : {} chars in {} ms", response.code(), jsonString.length(), ms);
         return new DataAndResponse(response, obj);
     }
 
+    //
+    // Retry-After is either a number of seconds or a http date
+    private static long retryAfterMs(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) {
+            return UPSTREAM_DEFAULT_RETRY_AFTER_MS;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                long retryAtMs = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, retryAtMs - System.currentTimeMillis());
+            } catch (DateTimeParseException notADate) {
+                return UPSTREAM_DEFAULT_RETRY_AFTER_MS;
+            }
+        }
+    }
+
+    //
+    // timeouts, connection failures and 5xx responses are worth retrying but a body we cant parse is not
+    private static boolean isTransient(Throwable throwable) {
+        return throwable instanceof IOException && !(throwable instanceof JsonProcessingException);
+    }
+
+    private static long backoffMs(int attempt) {
+        long ceilingMs = RETRY_BASE_BACKOFF_MS * (1L << attempt);
+        return ceilingMs / 2 + ThreadLocalRandom.current().nextLong(ceilingMs / 2 + 1);
+    }
+
+    private long hedgeDelayMs() {
+        if (latencyTracker.getCount() < HEDGE_MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(HEDGE_MIN_DELAY_MS, latencyTracker.percentile(HEDGE_PERCENTILE));
+    }
+
+    //
+    // every request earns a fraction of an extra request and every hedge or retry spends a whole one
+    private synchronized void depositBudget() {
+        amplificationBudget = Math.min(AMPLIFICATION_BUDGET_MAX, amplificationBudget + AMPLIFICATION_BUDGET_PERCENT / 100.0);
+    }
+
+    private synchronized boolean withdrawBudget() {
+        if (amplificationBudget < 1) {
+            return false;
+        }
+        amplificationBudget--;
+        return true;
+    }
+
+    public static Map<String, Object> getMetrics() {
+        return upstream.metrics();
+    }
+
+    Map<String, Object> metrics() {
+        long requests = requestCount.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("requests", requests);
+        metrics.put("hedges", hedgeCount.get());
+        metrics.put("hedgeWins", hedgeWinCount.get());
+        metrics.put("retries", retryCount.get());
+        metrics.put("hedgeRate", requests == 0 ? 0 : (double) hedgeCount.get() / requests);
+        metrics.put("retryRate", requests == 0 ? 0 : (double) retryCount.get() / requests);
+        metrics.put("coalesced", upstreamReads.getCoalescedCount());
+        metrics.put("inFlight", upstreamReads.getInFlightCount());
+        metrics.put("latencyP50Ms", latencyTracker.percentile(50));
+        metrics.put("latencyP95Ms", latencyTracker.percentile(95));
+        metrics.put("latencyP99Ms", latencyTracker.percentile(99));
+        metrics.put("rateLimit", rateLimiter.getMetrics());
+        return metrics;
+    }
+
 }
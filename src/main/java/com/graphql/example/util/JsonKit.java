@@ -1,10 +1,14 @@
 package com.graphql.example.util;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.Map;
 
@@ -13,27 +17,61 @@ import java.util.Map;
  */
 public class JsonKit {
     static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-
+    static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+    static final ObjectMapper CANONICAL_OBJECT_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
 
     public static void toJson(HttpServletResponse response, Object result) throws IOException {
         OBJECT_MAPPER.writeValue(response.getWriter(), result);
     }
 
+    public static byte[] toJsonBytes(Object result) {
+        try {
+            return OBJECT_MAPPER.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String toJsonString(Object result) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param value the value to serialize
+     *
+     * @return json with map keys in sorted order so that equal values always give the same string
+     */
+    public static String toCanonicalJson(Object value) {
+        try {
+            return CANONICAL_OBJECT_MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static Map<String, Object> toMap(String jsonStr) {
         if (jsonStr == null || jsonStr.trim().length() == 0) {
             return Collections.emptyMap();
         }
-        TypeReference<Map<String, Object>> typeToken = new TypeReference<Map<String, Object>>() {
-        };
         Map<String, Object> map;
         try {
-            map = OBJECT_MAPPER.readValue(jsonStr, typeToken);
+            map = OBJECT_MAPPER.readValue(jsonStr, MAP_TYPE);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         return map == null ? Collections.emptyMap() : map;
     }
 
+    public static JsonParser createParser(InputStream inputStream) throws IOException {
+        return OBJECT_MAPPER.getFactory().createParser(inputStream);
+    }
+
     public static Object fromJson(String jsonStr) throws IOException {
         return OBJECT_MAPPER.readValue(jsonStr, Object.class);
     }
@@ -1,10 +1,13 @@
 package com.graphql.example.util;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 import javax.servlet.http.HttpServletRequest;
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -39,12 +42,23 @@ public class QueryParameters {
     }
 
     public static QueryParameters from(HttpServletRequest request) {
+        return from(request, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the query parameters from the request
+     *
+     * @param request      the http request
+     * @param maxBodyBytes the largest POST body that will be accepted
+     *
+     * @return the query parameters
+     *
+     * @throws BodyTooLargeException if the POST body is larger than the max allowed
+     */
+    public static QueryParameters from(HttpServletRequest request, int maxBodyBytes) {
         QueryParameters parameters = new QueryParameters();
         if ("POST".equalsIgnoreCase(request.getMethod())) {
-            Map<String, Object> json = readJSON(request);
-            parameters.query = (String) json.get("query");
-            parameters.operationName = (String) json.get("operationName");
-            parameters.variables = getVariables(json.get("variables"));
+            readJSON(request, maxBodyBytes, parameters);
         } else {
             parameters.query = request.getParameter("query");
             parameters.operationName = request.getParameter("operationName");
@@ -53,34 +67,105 @@ public class QueryParameters {
         return parameters;
     }
 
+    public static class BodyTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
 
-    private static Map<String, Object> getVariables(Object variables) {
-        if (variables instanceof Map) {
-            Map<?, ?> inputVars = (Map) variables;
-            Map<String, Object> vars = new HashMap<>();
-            inputVars.forEach((k, v) -> vars.put(String.valueOf(k), v));
-            return vars;
+        BodyTooLargeException(long maxBodyBytes) {
+            super("The request body is larger than the maximum of " + maxBodyBytes + " bytes");
         }
-        return JsonKit.toMap(String.valueOf(variables));
     }
 
-    private static Map<String, Object> readJSON(HttpServletRequest request) {
-        String s = readPostBody(request);
-        return JsonKit.toMap(s);
+    private static Map<String, Object> getVariables(String variables) {
+        return JsonKit.toMap(variables);
     }
 
-    private static String readPostBody(HttpServletRequest request) {
-        try {
-            StringBuilder sb = new StringBuilder();
-            BufferedReader reader = request.getReader();
-            int c;
-            while ((c = reader.read()) != -1) {
-                sb.append((char) c);
+    //
+    // the body is parsed straight off the input stream in one pass rather than being read
+    // into a string first and then parsed into a map and then copied
+    //
+    private static void readJSON(HttpServletRequest request, int maxBodyBytes, QueryParameters parameters) {
+        if (request.getContentLengthLong() > maxBodyBytes) {
+            throw new BodyTooLargeException(maxBodyBytes);
+        }
+        try (JsonParser parser = JsonKit.createParser(new LimitedInputStream(request.getInputStream(), maxBodyBytes))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("query".equals(fieldName)) {
+                    parameters.query = readString(parser);
+                } else if ("operationName".equals(fieldName)) {
+                    parameters.operationName = readString(parser);
+                } else if ("variables".equals(fieldName) && token == JsonToken.START_OBJECT) {
+                    parameters.variables = parser.readValueAs(JsonKit.MAP_TYPE);
+                } else if ("variables".equals(fieldName) && token == JsonToken.VALUE_STRING) {
+                    // some clients send the variables as a json string, the same as a GET does
+                    parameters.variables = getVariables(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
             }
-            return sb.toString();
         } catch (IOException e) {
+            //
+            // jackson may wrap the limit being hit, say when it is reading the variables map,
+            // so look for it anywhere in the cause chain
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof BodyLimitReachedException) {
+                    throw new BodyTooLargeException(maxBodyBytes);
+                }
+            }
             throw new RuntimeException(e);
         }
     }
 
+    private static String readString(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long bytesRead;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws BodyLimitReachedException {
+            bytesRead += n;
+            if (bytesRead > maxBytes) {
+                throw new BodyLimitReachedException();
+            }
+        }
+    }
+
+    //
+    // an io exception so that the json parser passes it through like any other read failure
+    private static class BodyLimitReachedException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
 }
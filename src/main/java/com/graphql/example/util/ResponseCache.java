@@ -0,0 +1,285 @@
+package com.graphql.example.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Most graphql traffic is the same few queries over and over, so rather than executing them
+ * every time we can keep the serialized response bytes around for a while and just copy them
+ * out to the next client that asks the same thing.
+ *
+ * Responses are keyed by the normalized query text, the operation name and the canonical form
+ * of the variables and are kept in least recently used order up to a maximum number of bytes.
+ */
+public class ResponseCache {
+
+    public class CachedResponse {
+        private final String key;
+        private final byte[] json;
+        private final String etag;
+        private final long expiresAtMs;
+        private volatile byte[] gzippedJson;
+
+        CachedResponse(String key, byte[] json, String etag, long expiresAtMs) {
+            this.key = key;
+            this.json = json;
+            this.etag = etag;
+            this.expiresAtMs = expiresAtMs;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        /**
+         * Responses are only compressed once a client that accepts gzip asks for them, which
+         * saves compressing one off queries for clients that never wanted it.  The compression is
+         * done outside of the lock so it never holds up other lookups, and if two clients race
+         * the first one to finish wins
+         *
+         * @return the gzipped json
+         */
+        public byte[] getGzippedJson() {
+            byte[] gzipped = gzippedJson;
+            if (gzipped != null) {
+                return gzipped;
+            }
+            gzipped = gzip(json);
+            synchronized (ResponseCache.this) {
+                if (gzippedJson == null) {
+                    gzippedJson = gzipped;
+                    if (entries.get(key) == this) {
+                        totalBytes += gzipped.length;
+                        evictOverMaxBytes();
+                    }
+                }
+                return gzippedJson;
+            }
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * If-None-Match can hold a list of etags, weak etags or '*' and uses the weak comparison
+         *
+         * @param ifNoneMatch the If-None-Match request header
+         *
+         * @return true if the client already has this response
+         */
+        public boolean isMatchedBy(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int size() {
+            return json.length + (gzippedJson == null ? 0 : gzippedJson.length);
+        }
+    }
+
+    private final long maxBytes;
+    private final long ttlMs;
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public ResponseCache(long maxBytes, long ttlMs) {
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Builds a cache key from the query parameters such that queries that only differ by
+     * insignificant white space or variable ordering share the same key
+     *
+     * @param parameters the query parameters
+     *
+     * @return a cache key
+     */
+    public static String cacheKey(QueryParameters parameters) {
+        return normalizeQuery(parameters.getQuery())
+                + '\u0000' + parameters.getOperationName()
+                + '\u0000' + JsonKit.toCanonicalJson(parameters.getVariables());
+    }
+
+    //
+    // white space, commas and comments are insignificant in graphql outside of string values
+    // and a separator is only needed between two names or numbers
+    //
+    static String normalizeQuery(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        boolean inString = false;
+        boolean pendingSpace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (inString) {
+                sb.append(c);
+                if (c == '\\' && i + 1 < query.length()) {
+                    sb.append(query.charAt(++i));
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '#') {
+                while (i + 1 < query.length() && query.charAt(i + 1) != '\n') {
+                    i++;
+                }
+                pendingSpace = true;
+            } else if (Character.isWhitespace(c) || c == ',') {
+                pendingSpace = true;
+            } else {
+                if (pendingSpace && sb.length() > 0 && isNameChar(sb.charAt(sb.length() - 1)) && isNameChar(c)) {
+                    sb.append(' ');
+                }
+                pendingSpace = false;
+                sb.append(c);
+                inString = c == '"';
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    public synchronized CachedResponse get(String key) {
+        CachedResponse cachedResponse = entries.get(key);
+        if (cachedResponse != null && cachedResponse.expiresAtMs < System.currentTimeMillis()) {
+            remove(key);
+            cachedResponse = null;
+        }
+        if (cachedResponse == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return cachedResponse;
+    }
+
+    /**
+     * Puts the serialized response into the cache.  The etag is worked out outside of the lock since
+     * hashing is expensive, and so is the compression that is left until a client asks for it
+     *
+     * @param key  the cache key
+     * @param json the serialized json response
+     *
+     * @return the cached response
+     */
+    public CachedResponse put(String key, byte[] json) {
+        CachedResponse cachedResponse = new CachedResponse(key, json, etag(json), System.currentTimeMillis() + ttlMs);
+        synchronized (this) {
+            remove(key);
+            entries.put(key, cachedResponse);
+            totalBytes += cachedResponse.size();
+            evictOverMaxBytes();
+        }
+        return cachedResponse;
+    }
+
+    private void evictOverMaxBytes() {
+        Iterator<CachedResponse> leastRecentlyUsed = entries.values().iterator();
+        while (totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+            CachedResponse evicted = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            totalBytes -= evicted.size();
+            evictionCount++;
+        }
+    }
+
+    private void remove(String key) {
+        CachedResponse removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.size();
+        }
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("hits", hitCount);
+        metrics.put("misses", missCount);
+        metrics.put("evictions", evictionCount);
+        metrics.put("entries", entries.size());
+        metrics.put("bytes", totalBytes);
+        return metrics;
+    }
+
+    /**
+     * Accept-Encoding is a list of codings with optional quality values, where a quality of 0
+     * means the client does not want that coding
+     *
+     * @param acceptEncoding the Accept-Encoding request header
+     *
+     * @return true if the client accepts a gzipped response
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            boolean accepted = quality(parts) > 0;
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                return accepted;
+            } else if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String etag(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.graphql.example.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Makes sure there is only ever one call in flight for a given key.  Callers that ask for a key
+ * while a call for it is already running are attached to that call rather than making their own.
+ *
+ * This is not a cache.  The key is forgotten as soon as the call completes, so the next caller
+ * after that makes a fresh call.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Returns the in flight call for the key or else starts a new one.
+     *
+     * @param key  the key of the call
+     * @param call the code that makes the call, only invoked if there is no call in flight for the key
+     *
+     * @return a promise to the value
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existingFlight = inFlight.putIfAbsent(key, flight);
+        if (existingFlight != null) {
+            coalescedCount.incrementAndGet();
+            return existingFlight;
+        }
+        callCount.incrementAndGet();
+        try {
+            call.get().whenComplete((value, throwable) -> {
+                // forget the key before completing so anyone asking from here on gets a fresh call
+                inFlight.remove(key, flight);
+                if (throwable != null) {
+                    flight.completeExceptionally(throwable);
+                } else {
+                    flight.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+        }
+        return flight;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
@@ -0,0 +1,120 @@
+package com.graphql.example.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes sampled execution traces to local files on a background thread so the request
+ * that was traced never waits on disk.
+ *
+ * The files use the JSON array form of the Chrome trace event format where a trailing comma and a
+ * missing closing bracket are allowed, which means events can just be appended.  Once a file gets
+ * too big a new one is started and only the most recent files are kept.
+ */
+public class TraceExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceExporter.class);
+
+    private final File directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final ExecutorService executor;
+    private final AtomicLong exportedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private OutputStream currentFile;
+    private long currentFileBytes;
+    private int rotationCount;
+
+    public TraceExporter(File directory, long maxFileBytes, int maxFiles) {
+        this(directory, maxFileBytes, maxFiles, 1000);
+    }
+
+    TraceExporter(File directory, long maxFileBytes, int maxFiles, int maxQueued) {
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        //
+        // if the disk cant keep up we would rather drop traces than queue up memory
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueued),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "trace-exporter");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, threadPoolExecutor) -> droppedCount.incrementAndGet());
+    }
+
+    public void export(ExecutionTrace trace) {
+        executor.execute(() -> {
+            try {
+                write(trace);
+                exportedCount.incrementAndGet();
+            } catch (IOException e) {
+                log.warn("Unable to export trace", e);
+            }
+        });
+    }
+
+    // only ever called on the single exporter thread
+    private void write(ExecutionTrace trace) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map<String, Object> event : trace.toTraceEvents()) {
+            sb.append(JsonKit.toJsonString(event)).append(",\n");
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        if (currentFile == null || currentFileBytes + bytes.length > maxFileBytes) {
+            rotate();
+        }
+        currentFile.write(bytes);
+        currentFile.flush();
+        currentFileBytes += bytes.length;
+    }
+
+    private void rotate() throws IOException {
+        if (currentFile != null) {
+            currentFile.close();
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create trace directory " + directory);
+        }
+        File file = new File(directory, String.format("trace-%d-%06d.json", System.currentTimeMillis(), rotationCount++));
+        log.info("Writing traces to {}", file);
+        currentFile = new FileOutputStream(file);
+        currentFile.write("[\n".getBytes(StandardCharsets.UTF_8));
+        currentFileBytes = 2;
+
+        File[] traceFiles = directory.listFiles((dir, name) -> name.startsWith("trace-") && name.endsWith(".json"));
+        if (traceFiles != null && traceFiles.length > maxFiles) {
+            Arrays.sort(traceFiles, Comparator.comparing(File::getName));
+            for (int i = 0; i < traceFiles.length - maxFiles; i++) {
+                if (!traceFiles[i].delete()) {
+                    log.warn("Unable to delete old trace file {}", traceFiles[i]);
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("exported", exportedCount.get());
+        metrics.put("dropped", droppedCount.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,147 @@
+package com.graphql.example.util;
+
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.execution.AsyncExecutionStrategy;
+import graphql.execution.ExecutionContext;
+import graphql.execution.ExecutionStrategyParameters;
+import graphql.execution.ExecutionTypeInfo;
+import graphql.language.Field;
+import graphql.schema.CoercingSerializeException;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNonNull;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLScalarType;
+import graphql.schema.GraphQLType;
+import graphql.schema.PropertyDataFetcher;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Most of the fields we serve, such as name, culture and titles, are a plain lookup of a scalar in
+ * the upstream json map.  The default execution strategy still fetches, instruments and completes
+ * each one through its own promises, which for a page of 50 nodes is thousands of promises.
+ *
+ * This strategy resolves those trivial fields of a map backed object in one synchronous pass over the
+ * map and only hands the remaining fields (like the url backed objects and connections) to the
+ * normal asynchronous execution.
+ *
+ * Trivial fields do not go through field instrumentation, so use the default strategy when tracing.
+ *
+ * Which fields are trivial is remembered by "Type.field" name so that one instance can be shared by
+ * every request, even though each request builds its own schema.  That relies on every schema it
+ * executes having the same wiring.
+ */
+public class TrivialFieldExecutionStrategy extends AsyncExecutionStrategy {
+
+    //
+    // the schema generator wires every field we have not wired ourselves with a
+    // property data fetcher for the field name, which for a map is just map.get(fieldName)
+    private final Map<String, Boolean> trivialFields = new ConcurrentHashMap<>();
+
+    // marks a field that turned out to need the full machinery, say a null in a non null field
+    private static final Object NOT_RESOLVED = new Object();
+
+    @Override
+    public CompletableFuture<ExecutionResult> execute(ExecutionContext executionContext, ExecutionStrategyParameters parameters) {
+        GraphQLType parentType = ExecutionTypeInfo.unwrapBaseType(parameters.typeInfo().getType());
+        if (!(parameters.source() instanceof Map) || !(parentType instanceof GraphQLObjectType)) {
+            return super.execute(executionContext, parameters);
+        }
+        Map<?, ?> source = (Map<?, ?>) parameters.source();
+
+        Map<String, Object> resolvedValues = new LinkedHashMap<>();
+        Map<String, List<Field>> remainingFields = new LinkedHashMap<>();
+        parameters.fields().forEach((resultKey, fields) -> {
+            GraphQLFieldDefinition fieldDef = getFieldDef(executionContext.getGraphQLSchema(), (GraphQLObjectType) parentType, fields.get(0));
+            Object value = isTrivial((GraphQLObjectType) parentType, fieldDef) ? resolveTrivial(fieldDef, source) : NOT_RESOLVED;
+            if (value == NOT_RESOLVED) {
+                remainingFields.put(resultKey, fields);
+            } else {
+                resolvedValues.put(resultKey, value);
+            }
+        });
+
+        if (remainingFields.isEmpty()) {
+            return CompletableFuture.completedFuture(new ExecutionResultImpl(resolvedValues, executionContext.getErrors()));
+        }
+        if (resolvedValues.isEmpty()) {
+            return super.execute(executionContext, parameters);
+        }
+
+        // transform does not carry the path over so we set it again
+        ExecutionStrategyParameters remainingParameters = parameters.transform(builder -> builder.fields(remainingFields).path(parameters.path()));
+        return super.execute(executionContext, remainingParameters).thenApply(executionResult -> {
+            Map<String, Object> remainingValues = executionResult.getData();
+            if (remainingValues == null) {
+                return executionResult;
+            }
+            //
+            // put the fields back in the order they were asked for
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (String resultKey : parameters.fields().keySet()) {
+                values.put(resultKey, resolvedValues.containsKey(resultKey) ? resolvedValues.get(resultKey) : remainingValues.get(resultKey));
+            }
+            return new ExecutionResultImpl(values, executionResult.getErrors());
+        });
+    }
+
+    private boolean isTrivial(GraphQLObjectType parentType, GraphQLFieldDefinition fieldDef) {
+        return trivialFields.computeIfAbsent(parentType.getName() + "." + fieldDef.getName(), name -> {
+            if (!fieldDef.getArguments().isEmpty() || fieldDef.getDataFetcher().getClass() != PropertyDataFetcher.class) {
+                return false;
+            }
+            GraphQLType type = unwrapNonNull(fieldDef.getType());
+            if (type instanceof GraphQLList) {
+                type = unwrapNonNull(((GraphQLList) type).getWrappedType());
+            }
+            return type instanceof GraphQLScalarType;
+        });
+    }
+
+    private Object resolveTrivial(GraphQLFieldDefinition fieldDef, Map<?, ?> source) {
+        Object value = source.get(fieldDef.getName());
+        GraphQLType type = fieldDef.getType();
+        if (value == null) {
+            return type instanceof GraphQLNonNull ? NOT_RESOLVED : null;
+        }
+        type = unwrapNonNull(type);
+        if (!(type instanceof GraphQLList)) {
+            return serialize(type, value);
+        }
+        if (!(value instanceof Iterable)) {
+            return NOT_RESOLVED;
+        }
+        GraphQLType itemType = ((GraphQLList) type).getWrappedType();
+        List<Object> values = new ArrayList<>();
+        for (Object item : (Iterable<?>) value) {
+            Object serialized = item == null ? (itemType instanceof GraphQLNonNull ? NOT_RESOLVED : null) : serialize(unwrapNonNull(itemType), item);
+            if (serialized == NOT_RESOLVED) {
+                return NOT_RESOLVED;
+            }
+            values.add(serialized);
+        }
+        return values;
+    }
+
+    //
+    // anything the scalar cannot serialize goes the long way round so that it is reported as an error in the usual way
+    private Object serialize(GraphQLType type, Object value) {
+        try {
+            Object serialized = ((GraphQLScalarType) type).getCoercing().serialize(value);
+            return serialized == null || serialized instanceof Double && ((Double) serialized).isNaN() ? NOT_RESOLVED : serialized;
+        } catch (CoercingSerializeException e) {
+            return NOT_RESOLVED;
+        }
+    }
+
+    private GraphQLType unwrapNonNull(GraphQLType type) {
+        return type instanceof GraphQLNonNull ? ((GraphQLNonNull) type).getWrappedType() : type;
+    }
+}
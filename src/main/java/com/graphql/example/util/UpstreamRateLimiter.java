@@ -0,0 +1,166 @@
+package com.graphql.example.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that paces the calls we make to the upstream API so that we stay under its
+ * rate limit rather than sending bursts that get throttled.
+ *
+ * Calls wait in priority lanes and whenever tokens are available they go to the highest lane first,
+ * so a query waiting on a data loader batch is not stuck behind someone paging through all the characters.
+ * Waiting calls are released once per window with as many tokens as have built up, which means
+ * a data loader batch goes out together rather than trickling out one call at a time.
+ *
+ * When the upstream API does throttle us (429) every lane is paused until its Retry-After has passed.
+ */
+public class UpstreamRateLimiter {
+
+    public enum Lane {
+        // a data loader batch that a query is waiting on right now
+        INTERACTIVE,
+        // a page of a resource listing
+        PAGE,
+        // optional extra calls such as hedges, which are the first thing to give up when we are busy
+        BACKGROUND
+    }
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final long windowNanos;
+    private final ScheduledExecutorService executor;
+
+    private final List<Deque<Waiter>> queues = new ArrayList<>();
+    private final List<LatencyTracker> queueWaits = new ArrayList<>();
+    private final long[] grantedCounts = new long[Lane.values().length];
+    private double tokens;
+    private long refilledAtNanos = System.nanoTime();
+    private long pausedUntilNanos = refilledAtNanos;
+    private boolean drainScheduled;
+    private long throttledCount;
+
+    private static class Waiter {
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+        final long enqueuedNanos = System.nanoTime();
+    }
+
+    /**
+     * @param permitsPerSecond the sustained rate of calls allowed
+     * @param burst            the most calls that can go out at once after a quiet period
+     * @param windowMs         how often waiting calls are released
+     * @param executor         used to release waiting calls
+     */
+    public UpstreamRateLimiter(double permitsPerSecond, int burst, long windowMs, ScheduledExecutorService executor) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.executor = executor;
+        this.tokens = this.burst;
+        for (Lane ignored : Lane.values()) {
+            queues.add(new ArrayDeque<>());
+            queueWaits.add(new LatencyTracker(1000));
+        }
+    }
+
+    /**
+     * Asks for permission to make a call.  Cancelling the returned promise gives up the place in
+     * the queue without using a token.
+     *
+     * @param lane the lane to wait in
+     *
+     * @return a promise that completes when the call may be made
+     */
+    public CompletableFuture<Void> acquire(Lane lane) {
+        Waiter waiter = new Waiter();
+        synchronized (this) {
+            queues.get(lane.ordinal()).add(waiter);
+        }
+        drain();
+        return waiter.permit;
+    }
+
+    /**
+     * Tells the limiter the upstream API has throttled us, which pauses all calls until the retry
+     * after period is over
+     *
+     * @param retryAfterMs how long the upstream API asked us to wait
+     */
+    public synchronized void throttled(long retryAfterMs) {
+        throttledCount++;
+        pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMs));
+        tokens = 0;
+    }
+
+    private void drain() {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            //
+            // no tokens build up while we are paused so we restart gently once the pause is over
+            long refillFromNanos = Math.max(refilledAtNanos, pausedUntilNanos);
+            if (now > refillFromNanos) {
+                tokens = Math.min(burst, tokens + (now - refillFromNanos) / 1e9 * permitsPerSecond);
+            }
+            refilledAtNanos = now;
+
+            boolean waiting = false;
+            for (Lane lane : Lane.values()) {
+                Deque<Waiter> queue = queues.get(lane.ordinal());
+                while (now >= pausedUntilNanos && tokens >= 1 && !queue.isEmpty()) {
+                    Waiter waiter = queue.poll();
+                    if (waiter.permit.isDone()) {
+                        continue;
+                    }
+                    tokens--;
+                    grantedCounts[lane.ordinal()]++;
+                    queueWaits.get(lane.ordinal()).record(TimeUnit.NANOSECONDS.toMillis(now - waiter.enqueuedNanos));
+                    granted.add(waiter);
+                }
+                waiting |= !queue.isEmpty();
+            }
+
+            if (waiting && !drainScheduled) {
+                long untilNextTokenNanos = (long) ((1 - tokens) / permitsPerSecond * 1e9);
+                long delayNanos = Math.max(Math.max(untilNextTokenNanos, windowNanos), pausedUntilNanos - now);
+                drainScheduled = true;
+                executor.schedule(() -> {
+                    synchronized (this) {
+                        drainScheduled = false;
+                    }
+                    drain();
+                }, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        //
+        // completing the permits runs the callers code so we do it outside the lock
+        for (Waiter waiter : granted) {
+            waiter.permit.complete(null);
+        }
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("permitsPerSecond", permitsPerSecond);
+        metrics.put("tokens", (int) tokens);
+        metrics.put("throttled", throttledCount);
+        metrics.put("pausedMs", Math.max(0, TimeUnit.NANOSECONDS.toMillis(pausedUntilNanos - System.nanoTime())));
+        for (Lane lane : Lane.values()) {
+            LatencyTracker queueWait = queueWaits.get(lane.ordinal());
+            Map<String, Object> laneMetrics = new LinkedHashMap<>();
+            laneMetrics.put("queued", queues.get(lane.ordinal()).size());
+            laneMetrics.put("granted", grantedCounts[lane.ordinal()]);
+            laneMetrics.put("queueWaitP50Ms", queueWait.percentile(50));
+            laneMetrics.put("queueWaitP95Ms", queueWait.percentile(95));
+            laneMetrics.put("queueWaitP99Ms", queueWait.percentile(99));
+            metrics.put(lane.name().toLowerCase(), laneMetrics);
+        }
+        return metrics;
+    }
+}
@@ -1,5 +1,6 @@
 package com.graphql.example.proxy
 
+import com.graphql.example.proxy.relay.CursorPageAndOffset
 import com.graphql.example.proxy.relay.ForwardOnlyFixedPagedDataSet
 import com.graphql.example.proxy.relay.PagedResult
 import graphql.schema.DataFetchingEnvironment
@@ -75,7 +76,7 @@ class ForwardOnlyFixedPagedDataSetTest extends Specification {
     }
 
     def mkCursor(int page, int offset) {
-        return new ForwardOnlyFixedPagedDataSet.PageAndOffset(page, offset).toConnectionCursor().toString()
+        return new CursorPageAndOffset(page, offset).toConnectionCursor().toString()
     }
 
     def mkList(int count, boolean hasNextPage = true) {
@@ -0,0 +1,79 @@
+package com.graphql.example.proxy
+
+import graphql.relay.Relay
+import graphql.schema.DataFetchingEnvironmentBuilder
+import spock.lang.Specification
+
+class IceAndFireDataFetchersTest extends Specification {
+
+    static final String BOOK_URL = "https://www.anapioficeandfire.com/api/books/1"
+
+    def "id_does_not_change_the_upstream_resource"() {
+
+        when:
+        def resource = [url: BOOK_URL, name: "A Game of Thrones"]
+        def env = DataFetchingEnvironmentBuilder.newDataFetchingEnvironment()
+                .source(resource)
+                .build()
+        def id = new IceAndFireDataFetchers(null).id().get(env)
+
+        then:
+        resource == [url: BOOK_URL, name: "A Game of Thrones"]
+        id == IceAndFireDataFetchers.globalId(resource)
+    }
+
+    def "url_ids_round_trip_back_to_the_resource_url"() {
+
+        expect:
+        IceAndFireDataFetchers.resourceUrlFromGlobalId(IceAndFireDataFetchers.globalId([url: BOOK_URL])) == BOOK_URL
+    }
+
+    def "only_ids_of_our_own_resources_can_be_refetched"() {
+
+        expect:
+        IceAndFireDataFetchers.resourceUrlFromGlobalId(globalId) == expected
+
+        where:
+        globalId                                                                    | expected
+        toGlobalId("url", BOOK_URL)                                                 | BOOK_URL
+        toGlobalId("url", API + "characters/583")                                   | API + "characters/583"
+        toGlobalId("url", API + "houses/362")                                       | API + "houses/362"
+        toGlobalId("name", "Jon Snow")                                              | null
+        toGlobalId("url", "https://evil.example.com/api/books/1")                   | null
+        toGlobalId("url", "https://www.anapioficeandfire.com.evil.com/api/books/1") | null
+        toGlobalId("url", API + "secrets/1")                                        | null
+        toGlobalId("anything", BOOK_URL)                                            | null
+        "!!not base64!!"                                                            | null
+        Base64.getEncoder().encodeToString("no type separator".getBytes("UTF-8"))  | null
+        ""                                                                          | null
+    }
+
+    def "nodes_without_one_of_our_resource_urls_are_null"() {
+
+        when:
+        def dataFetchers = new IceAndFireDataFetchers(null)
+        def loader = dataFetchers.getDataLoaders()[0]
+        loader.prime(BOOK_URL, [url: BOOK_URL, name: "A Game of Thrones"])
+        loader.prime(API + "books/2", [name: "No url"])
+        def node = dataFetchers.node().get(mkEnv([id: toGlobalId("url", API + "books/2")]))
+        def nodes = dataFetchers.nodes().get(mkEnv([ids: [
+                toGlobalId("url", BOOK_URL),
+                toGlobalId("name", "Jon Snow"),
+                toGlobalId("url", API + "books/2")]]))
+        loader.dispatch()
+
+        then:
+        node.join() == null
+        nodes.join() == [[url: BOOK_URL, name: "A Game of Thrones"], null, null]
+    }
+
+    static final String API = IceAndFireDataFetchers.API_URL_PREFIX
+
+    static String toGlobalId(String type, String id) {
+        new Relay().toGlobalId(type, id)
+    }
+
+    def mkEnv(Map<String, Object> arguments) {
+        DataFetchingEnvironmentBuilder.newDataFetchingEnvironment().arguments(arguments).build()
+    }
+}
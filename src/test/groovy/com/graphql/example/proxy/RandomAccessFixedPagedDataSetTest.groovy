@@ -0,0 +1,179 @@
+package com.graphql.example.proxy
+
+import com.graphql.example.proxy.relay.CursorPageAndOffset
+import com.graphql.example.proxy.relay.PagedResult
+import com.graphql.example.proxy.relay.RandomAccessFixedPagedDataSet
+import graphql.schema.DataFetchingEnvironment
+import graphql.schema.DataFetchingEnvironmentBuilder
+import spock.lang.Specification
+
+class RandomAccessFixedPagedDataSetTest extends Specification {
+
+    // 23 items in pages of 5 items, the last page has 3
+    int pageSize = 5
+    int totalItems = 23
+    List<Integer> pagesRead = []
+    int totalCountCalls = 0
+
+    def "basic_first_n"() {
+
+        when:
+        def connection = getConnection([first: 7])
+
+        then:
+        nodes(connection) == ["item0", "item1", "item2", "item3", "item4", "item5", "item6"]
+        connection.getPageInfo().isHasNextPage()
+        !connection.getPageInfo().isHasPreviousPage()
+        pagesRead == [1, 2]
+    }
+
+    def "default_first_n_is_used_if_no_first_or_last"() {
+
+        when:
+        def connection = getConnection([:])
+
+        then:
+        connection.getEdges().size() == 3
+        pagesRead == [1]
+    }
+
+    def "first_n_after_cursor_jumps_straight_to_the_page"() {
+
+        when:
+        def connection = getConnection([first: 3, after: mkCursor(3, 3)])
+
+        then:
+        nodes(connection) == ["item14", "item15", "item16"]
+        connection.getPageInfo().isHasNextPage()
+        connection.getPageInfo().isHasPreviousPage()
+        pagesRead == [3, 4]
+    }
+
+    def "cursors_round_trip"() {
+
+        when:
+        def firstConnection = getConnection([first: 4])
+        def secondConnection = getConnection([first: 4, after: firstConnection.getPageInfo().getEndCursor().getValue()])
+
+        then:
+        nodes(secondConnection) == ["item4", "item5", "item6", "item7"]
+    }
+
+    def "last_n_uses_the_total_count"() {
+
+        when:
+        def connection = getConnection([last: 4])
+
+        then:
+        nodes(connection) == ["item19", "item20", "item21", "item22"]
+        !connection.getPageInfo().isHasNextPage()
+        connection.getPageInfo().isHasPreviousPage()
+        totalCountCalls == 1
+        pagesRead == [4, 5]
+    }
+
+    def "last_n_before_cursor_reads_the_previous_page"() {
+
+        when:
+        def connection = getConnection([last: 3, before: mkCursor(3, 1)])
+
+        then:
+        nodes(connection) == ["item8", "item9", "item10"]
+        connection.getPageInfo().isHasNextPage()
+        connection.getPageInfo().isHasPreviousPage()
+        totalCountCalls == 0
+        pagesRead == [2, 3]
+    }
+
+    def "before_without_first_or_last_defaults_to_the_items_just_before_the_cursor"() {
+
+        when:
+        def connection = getConnection([before: mkCursor(3, 1)])
+
+        then:
+        nodes(connection) == ["item8", "item9", "item10"]
+        connection.getPageInfo().isHasPreviousPage()
+        totalCountCalls == 0
+        pagesRead == [2, 3]
+    }
+
+    def "first_n_past_the_end_is_cut_short"() {
+
+        when:
+        def connection = getConnection([first: 10, after: mkCursor(4, 2)])
+
+        then:
+        nodes(connection) == ["item18", "item19", "item20", "item21", "item22"]
+        !connection.getPageInfo().isHasNextPage()
+        pagesRead == [4, 5]
+    }
+
+    def "cursor_is_after_total_set_and_hence_zero_results"() {
+
+        when:
+        def connection = getConnection([first: 10, after: mkCursor(5, 2)])
+
+        then:
+        connection.getEdges().size() == 0
+        !connection.getPageInfo().isHasNextPage()
+    }
+
+    def "total_count_is_lazy"() {
+
+        when:
+        def connection = getConnection([first: 2])
+
+        then:
+        totalCountCalls == 0
+        connection.getTotalCount() == 23
+        totalCountCalls == 1
+    }
+
+    def "in_memory_list_can_be_paged_backwards"() {
+
+        when:
+        DataFetchingEnvironment env = DataFetchingEnvironmentBuilder.newDataFetchingEnvironment()
+                .arguments([last: 2]).build()
+        def connection = RandomAccessFixedPagedDataSet.getConnection(env, 10, ["a", "b", "c", "d"])
+
+        then:
+        nodes(connection) == ["c", "d"]
+        connection.getTotalCount() == 4
+        connection.getPageInfo().isHasPreviousPage()
+    }
+
+    def "negative_first_is_rejected"() {
+
+        when:
+        getConnection([first: -1])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def getConnection(Map<String, Object> args) {
+        DataFetchingEnvironment env = DataFetchingEnvironmentBuilder.newDataFetchingEnvironment()
+                .arguments(args).build()
+        return RandomAccessFixedPagedDataSet.getConnection(env, pageSize, 3, { page -> readPage(page) }, {
+            totalCountCalls++
+            totalItems
+        })
+    }
+
+    def readPage(int page) {
+        pagesRead.add(page)
+        def l = new ArrayList<String>()
+        for (int i = (page - 1) * pageSize; i < Math.min(page * pageSize, totalItems); i++) {
+            l.add("item" + i)
+        }
+        return new PagedResult(l, page * pageSize < totalItems)
+    }
+
+    static nodes(connection) {
+        connection.getEdges().collect { it.getNode() }
+    }
+
+    static mkCursor(int page, int offset) {
+        return new CursorPageAndOffset(page, offset).toConnectionCursor().toString()
+    }
+}
@@ -0,0 +1,107 @@
+package com.graphql.example.util
+
+import spock.lang.Specification
+
+import static com.graphql.example.util.ConcurrencyLimiter.Priority.HIGH
+import static com.graphql.example.util.ConcurrencyLimiter.Priority.LOW
+
+class ConcurrencyLimiterTest extends Specification {
+
+    def "sheds_requests_over_the_limit"() {
+
+        when:
+        def limiter = new ConcurrencyLimiter(2, 1, 10, 1000)
+        def permit1 = limiter.tryAcquire(HIGH)
+        def permit2 = limiter.tryAcquire(HIGH)
+        def permit3 = limiter.tryAcquire(HIGH)
+
+        then:
+        permit1 != null
+        permit2 != null
+        permit3 == null
+        limiter.getInFlight() == 2
+        limiter.getMetrics()["shed"] == 1L
+    }
+
+    def "low_priority_is_shed_before_high_priority"() {
+
+        when:
+        def limiter = new ConcurrencyLimiter(4, 1, 10, 1000)
+        3.times { limiter.tryAcquire(HIGH) }
+        def lowPermit = limiter.tryAcquire(LOW)
+        def highPermit = limiter.tryAcquire(HIGH)
+
+        then:
+        lowPermit == null
+        highPermit != null
+        limiter.getMetrics()["shedLowPriority"] == 1L
+    }
+
+    def "failures_decrease_the_limit"() {
+
+        when:
+        def limiter = new ConcurrencyLimiter(10, 2, 20, 1000)
+        5.times { limiter.tryAcquire(HIGH).release(false) }
+
+        then:
+        limiter.getLimit() == 5 // 10 * 0.9^5 = 5.9
+        limiter.getInFlight() == 0
+    }
+
+    def "concurrent_slow_requests_back_off_once"() {
+
+        when:
+        def limiter = new ConcurrencyLimiter(10, 2, 20, 5)
+        def permits = (1..10).collect { limiter.tryAcquire(HIGH) }
+        Thread.sleep(50)
+        permits.each { it.release(true) }
+        def limitAfterCongestion = limiter.getLimit()
+        //
+        // a request admitted after the back off is a new congestion event
+        def permit = limiter.tryAcquire(HIGH)
+        Thread.sleep(50)
+        permit.release(true)
+
+        then:
+        limitAfterCongestion == 9
+        limiter.getLimit() == 8 // 10 * 0.9^2 = 8.1
+        limiter.getInFlight() == 0
+    }
+
+    def "concurrent_failures_back_off_once"() {
+
+        when:
+        def limiter = new ConcurrencyLimiter(10, 2, 20, 1000)
+        def permits = (1..10).collect { limiter.tryAcquire(HIGH) }
+        permits.each { it.release(false) }
+
+        then:
+        limiter.getLimit() == 9
+    }
+
+    def "fast_requests_increase_the_limit_when_it_is_in_use"() {
+
+        when:
+        def limiter = new ConcurrencyLimiter(2, 1, 20, 1000)
+        20.times {
+            def permit1 = limiter.tryAcquire(HIGH)
+            def permit2 = limiter.tryAcquire(HIGH)
+            permit1?.release(true)
+            permit2?.release(true)
+        }
+
+        then:
+        limiter.getLimit() > 2
+        limiter.getLimit() <= 20
+    }
+
+    def "limit_stays_within_bounds"() {
+
+        when:
+        def limiter = new ConcurrencyLimiter(3, 3, 3, 1000)
+        10.times { limiter.tryAcquire(HIGH).release(false) }
+
+        then:
+        limiter.getLimit() == 3
+    }
+}
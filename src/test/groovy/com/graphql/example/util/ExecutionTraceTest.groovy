@@ -0,0 +1,57 @@
+package com.graphql.example.util
+
+import spock.lang.Specification
+
+class ExecutionTraceTest extends Specification {
+
+    def "overlapping_spans_are_packed_into_separate_rows_per_category"() {
+
+        when:
+        def trace = new ExecutionTrace("query")
+        long t = trace.getExecutionStartNanos()
+        trace.addSpan("a", "http", t, t + 100_000, [:])
+        trace.addSpan("b", "http", t + 50_000, t + 200_000, [:])
+        trace.addSpan("c", "http", t + 150_000, t + 300_000, [:])
+        trace.addSpan("d", "resolver", t + 10_000, t + 20_000, [:])
+        def events = trace.toTraceEvents()
+        def spans = events.findAll { it.ph == "X" }.collectEntries { [it.name, it] }
+        def threadNames = events.findAll { it.name == "thread_name" }.collectEntries { [it.tid, it.args.name] }
+
+        then:
+        events[0].name == "process_name"
+        events[0].args.name == "query"
+        events.every { it.pid == events[0].pid }
+        // c starts after a has finished so it reuses the first row
+        spans.a.tid == 0
+        spans.b.tid == 1
+        spans.c.tid == 0
+        spans.d.tid == 1000
+        threadNames == [0: "http 0", 1: "http 1", 1000: "resolver 0"]
+        spans.b.dur == 150
+        spans.b.ts - spans.a.ts == 50
+    }
+
+    def "each_trace_is_its_own_process"() {
+
+        expect:
+        new ExecutionTrace("a").toTraceEvents()[0].pid != new ExecutionTrace("b").toTraceEvents()[0].pid
+    }
+
+    def "resolver_timings_come_from_the_tracing_extension"() {
+
+        when:
+        def trace = new ExecutionTrace("query")
+        trace.addTracingExtension([execution: [resolvers: [
+                [path: ["books"], parentType: "Query", fieldName: "books", returnType: "BookConnection", startOffset: 1000, duration: 5000]
+        ]]])
+        trace.addTracingExtension("not tracing")
+        def spans = trace.toTraceEvents().findAll { it.ph == "X" }
+
+        then:
+        spans.size() == 1
+        spans[0].name == "Query.books"
+        spans[0].cat == "resolver"
+        spans[0].dur == 5
+        spans[0].args == [path: ["books"], returnType: "BookConnection"]
+    }
+}
@@ -0,0 +1,190 @@
+package com.graphql.example.util
+
+import com.fasterxml.jackson.core.JsonProcessingException
+import okhttp3.Interceptor
+import okhttp3.MediaType
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Response
+import okhttp3.ResponseBody
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static com.graphql.example.util.UpstreamRateLimiter.Lane.INTERACTIVE
+
+class HttpClientTest extends Specification {
+
+    def scheduler = Executors.newSingleThreadScheduledExecutor()
+    def calls = new ConcurrentHashMap<String, AtomicInteger>()
+    def rateLimiter = new UpstreamRateLimiter(1000, 1000, 10, scheduler)
+
+    def cleanup() {
+        scheduler.shutdownNow()
+    }
+
+    //
+    // the upstream is faked with an interceptor, the responder is given the path and the number
+    // of the call for that path and answers with [code, body, delayMs]
+    def mkClient(double budget, Closure responder) {
+        def upstream = new OkHttpClient.Builder().addInterceptor({ Interceptor.Chain chain ->
+            def path = chain.request().url().encodedPath()
+            int call = calls.computeIfAbsent(path, { new AtomicInteger() }).incrementAndGet()
+            def (code, body, delayMs) = responder(path, call)
+            Thread.sleep(delayMs as long)
+            new Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(code as int)
+                    .message("upstream")
+                    .body(ResponseBody.create(MediaType.parse("application/json"), body as String))
+                    .sentRequestAtMillis(0)
+                    .receivedResponseAtMillis(10)
+                    .build()
+        } as Interceptor).build()
+        new HttpClient(upstream, scheduler, rateLimiter, budget)
+    }
+
+    //
+    // hedging only starts once there are enough latency samples to know what slow is
+    def primeLatency(HttpClient client) {
+        (1..HttpClient.HEDGE_MIN_SAMPLES).each { client.readAsync("https://upstream/prime/$it", INTERACTIVE, null).get(5, TimeUnit.SECONDS) }
+    }
+
+    def read(HttpClient client, String path, ExecutionTrace trace = null) {
+        client.readAsync("https://upstream" + path, INTERACTIVE, trace)
+    }
+
+    def httpSpans(ExecutionTrace trace) {
+        trace.toTraceEvents().findAll { it.cat == "http" }.collect { it.args }
+    }
+
+    def "the_first_response_wins_and_the_slower_call_is_cancelled"() {
+
+        when:
+        def client = mkClient(10, { path, call ->
+            path == "/slow" && call == 1 ? [200, '"primary"', 1000] : [200, '"hedge"', 0]
+        })
+        primeLatency(client)
+        def trace = new ExecutionTrace("test")
+        def result = read(client, "/slow", trace).get(5, TimeUnit.SECONDS)
+        Thread.sleep(1500)
+
+        then:
+        result.getData() == "hedge"
+        calls["/slow"].get() == 2
+        client.metrics().hedges == 1
+        client.metrics().hedgeWins == 1
+        httpSpans(trace).collect { [it.hedge, it.outcome] } as Set == [[true, "200"], [false, "Canceled"]] as Set
+    }
+
+    def "a_read_only_fails_once_every_outstanding_call_has_failed"() {
+
+        when:
+        def client = mkClient(10, { path, call ->
+            if (path != "/flaky") {
+                return [200, '"ok"', 0]
+            }
+            call == 1 ? [500, '', 300] : call == 2 ? [200, '"hedge"', 600] : [500, '', 0]
+        })
+        primeLatency(client)
+        def result = read(client, "/flaky")
+        Thread.sleep(450)
+        def doneAfterPrimaryFailed = result.isDone()
+
+        then:
+        !doneAfterPrimaryFailed
+        result.get(5, TimeUnit.SECONDS).getData() == "hedge"
+        client.metrics().retries == 0
+    }
+
+    def "a_read_fails_when_the_primary_and_the_hedge_both_fail"() {
+
+        when:
+        def client = mkClient(0, { path, call ->
+            path != "/broken" ? [200, '"ok"', 0] : call == 1 ? [500, '', 300] : [500, '', 600]
+        })
+        primeLatency(client)
+        def result = read(client, "/broken")
+        Thread.sleep(450)
+        def doneAfterPrimaryFailed = result.isDone()
+        result.get(5, TimeUnit.SECONDS)
+
+        then:
+        !doneAfterPrimaryFailed
+        def e = thrown(ExecutionException)
+        e.getCause() instanceof IOException
+        client.metrics().hedges == 1
+    }
+
+    def "unparseable_bodies_are_not_retried"() {
+
+        when:
+        def client = mkClient(10, { path, call -> [200, 'not json{', 0] })
+        read(client, "/garbage").get(5, TimeUnit.SECONDS)
+
+        then:
+        def e = thrown(ExecutionException)
+        e.getCause() instanceof JsonProcessingException
+        calls["/garbage"].get() == 1
+        client.metrics().retries == 0
+    }
+
+    def "server_errors_are_retried_only_while_the_budget_lasts"() {
+
+        when:
+        def client = mkClient(1, { path, call -> [503, '', 0] })
+        def first = read(client, "/down")
+        first.handle({ value, throwable -> null }).get(5, TimeUnit.SECONDS)
+        def callsForFirstRead = calls["/down"].get()
+        def second = read(client, "/down")
+        second.handle({ value, throwable -> null }).get(5, TimeUnit.SECONDS)
+
+        then:
+        first.isCompletedExceptionally()
+        second.isCompletedExceptionally()
+        // the budget of 1 pays for one retry and the next read has not earned another yet
+        callsForFirstRead == 2
+        calls["/down"].get() == 3
+        client.metrics().retries == 1
+    }
+
+    def "hedges_stop_when_the_budget_runs_out"() {
+
+        when:
+        def client = mkClient(0, { path, call ->
+            path.startsWith("/slow") && call == 1 ? [200, '"primary"', 300] : [200, '"hedge"', 0]
+        })
+        // 20 priming reads earn 2 hedges
+        primeLatency(client)
+        def results = ["/slow1", "/slow2", "/slow3"].collect { read(client, it).get(5, TimeUnit.SECONDS).getData() }
+
+        then:
+        results == ["hedge", "hedge", "primary"]
+        client.metrics().hedges == 2
+    }
+
+    def "no_hedge_fires_while_a_read_is_still_waiting_for_the_rate_limit"() {
+
+        when:
+        def client = mkClient(10, { path, call -> [200, '"ok"', 0] })
+        primeLatency(client)
+        // far longer than the hedge delay
+        rateLimiter.throttled(500)
+        def result = read(client, "/queued")
+        Thread.sleep(300)
+        def doneWhileQueued = result.isDone()
+        def hedgesWhileQueued = client.metrics().hedges
+
+        then:
+        !doneWhileQueued
+        hedgesWhileQueued == 0
+        result.get(5, TimeUnit.SECONDS).getData() == "ok"
+        client.metrics().hedges == 0
+        calls["/queued"].get() == 1
+    }
+}
@@ -0,0 +1,40 @@
+package com.graphql.example.util
+
+import spock.lang.Specification
+
+class LatencyTrackerTest extends Specification {
+
+    def "percentiles_come_from_the_samples_in_the_window"() {
+
+        when:
+        def tracker = new LatencyTracker(4)
+        [10, 40, 20, 30].each { tracker.record(it) }
+
+        then:
+        tracker.getCount() == 4
+        tracker.percentile(0) == 10
+        tracker.percentile(25) == 10
+        tracker.percentile(50) == 20
+        tracker.percentile(51) == 30
+        tracker.percentile(100) == 40
+    }
+
+    def "the_oldest_sample_drops_out_once_the_window_is_full"() {
+
+        when:
+        def tracker = new LatencyTracker(4)
+        [10, 40, 20, 30, 50].each { tracker.record(it) }
+
+        then:
+        tracker.getCount() == 4
+        tracker.percentile(0) == 20
+        tracker.percentile(50) == 30
+        tracker.percentile(100) == 50
+    }
+
+    def "there_are_no_percentiles_without_samples"() {
+
+        expect:
+        new LatencyTracker(4).percentile(95) == -1
+    }
+}
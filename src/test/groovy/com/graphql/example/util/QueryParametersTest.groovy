@@ -0,0 +1,119 @@
+package com.graphql.example.util
+
+import spock.lang.Specification
+
+import javax.servlet.ReadListener
+import javax.servlet.ServletInputStream
+import javax.servlet.http.HttpServletRequest
+
+class QueryParametersTest extends Specification {
+
+    def "post_body_is_parsed"() {
+
+        when:
+        def parameters = QueryParameters.from(mkPost('''
+            {
+                "query" : "query Q($n : Int) { books(first : $n) { totalCount } }",
+                "extensions" : { "ignored" : [1, 2, {"a" : "b"}] },
+                "operationName" : "Q",
+                "variables" : { "n" : 10, "nested" : { "list" : [1, "two"] } }
+            }'''), 1000)
+
+        then:
+        parameters.getQuery() == 'query Q($n : Int) { books(first : $n) { totalCount } }'
+        parameters.getOperationName() == "Q"
+        parameters.getVariables() == [n: 10, nested: [list: [1, "two"]]]
+    }
+
+    def "string_and_null_variables_are_handled"() {
+
+        expect:
+        QueryParameters.from(mkPost(body), 1000).getVariables() == expected
+
+        where:
+        body                                          | expected
+        '{"query" : "{a}", "variables" : "{\\"n\\":1}"}' | [n: 1]
+        '{"query" : "{a}", "variables" : null}'       | [:]
+        '{"query" : "{a}"}'                           | [:]
+    }
+
+    def "empty_body_has_no_query"() {
+
+        when:
+        def parameters = QueryParameters.from(mkPost(''), 1000)
+
+        then:
+        parameters.getQuery() == null
+        parameters.getOperationName() == null
+    }
+
+    def "body_over_max_size_is_rejected_early"() {
+
+        when:
+        def request = mkPost('{"query" : "{a}"}', 5000)
+        QueryParameters.from(request, 1000)
+
+        then:
+        thrown(QueryParameters.BodyTooLargeException)
+        0 * request.getInputStream()
+    }
+
+    def "body_over_max_size_without_content_length_is_rejected"() {
+
+        when:
+        QueryParameters.from(mkPost('{"query" : "' + ('a' * 2000) + '"}', -1), 1000)
+
+        then:
+        thrown(QueryParameters.BodyTooLargeException)
+    }
+
+    def "oversized_variables_without_content_length_are_rejected"() {
+
+        when:
+        // the limit is above the size of the parser's first read so it is hit while reading the variables
+        QueryParameters.from(mkPost(body, -1), 10_000)
+
+        then:
+        thrown(QueryParameters.BodyTooLargeException)
+
+        where:
+        body << [
+                '{"query" : "{a}", "variables" : {"v" : "' + ('a' * 50_000) + '"}}',
+                '{"query" : "{a}", "variables" : {"v" : [' + (1..20_000).join(", ") + ']}}',
+                '{"query" : "{a}", "variables" : "{\\"v\\" : \\"' + ('a' * 50_000) + '\\"}"}',
+        ]
+    }
+
+    def "get_parameters_are_read"() {
+
+        when:
+        def request = Mock(HttpServletRequest)
+        request.getMethod() >> "GET"
+        request.getParameter("query") >> "{a}"
+        request.getParameter("variables") >> '{"n":1}'
+        def parameters = QueryParameters.from(request, 1000)
+
+        then:
+        parameters.getQuery() == "{a}"
+        parameters.getOperationName() == null
+        parameters.getVariables() == [n: 1]
+    }
+
+    def mkPost(String body, long contentLength = body.length()) {
+        def bytes = new ByteArrayInputStream(body.getBytes("UTF-8"))
+        def inputStream = new ServletInputStream() {
+            boolean isFinished() { bytes.available() == 0 }
+
+            boolean isReady() { true }
+
+            void setReadListener(ReadListener readListener) {}
+
+            int read() { bytes.read() }
+        }
+        def request = Mock(HttpServletRequest)
+        request.getMethod() >> "POST"
+        request.getContentLengthLong() >> contentLength
+        request.getInputStream() >> inputStream
+        return request
+    }
+}
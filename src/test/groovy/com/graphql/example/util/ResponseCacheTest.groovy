@@ -0,0 +1,141 @@
+package com.graphql.example.util
+
+import spock.lang.Specification
+
+import java.util.zip.GZIPInputStream
+
+class ResponseCacheTest extends Specification {
+
+    def "insignificant_query_differences_normalize_the_same"() {
+
+        expect:
+        ResponseCache.normalizeQuery(query1) == ResponseCache.normalizeQuery(query2)
+
+        where:
+        query1                                             | query2
+        '{ books(first:10) { edges { node { name } } } }'  | '{books(first: 10){edges{node{name}}}}'
+        'query Q { books { totalCount } }'                 | 'query   Q\n{\n  books # comment\n  { totalCount }\n}'
+        '{ node(id: "a, b") { id, url } }'                 | '{node(id:"a, b"){id url}}'
+    }
+
+    def "significant_query_differences_normalize_differently"() {
+
+        expect:
+        ResponseCache.normalizeQuery(query1) != ResponseCache.normalizeQuery(query2)
+
+        where:
+        query1                          | query2
+        'query Q { books { id } }'      | 'queryQ { books { id } }'
+        '{ node(id: "a  b") { id } }'   | '{ node(id: "a b") { id } }'
+    }
+
+    def "cached_responses_are_returned_with_gzip_and_etag"() {
+
+        when:
+        def cache = new ResponseCache(1000, 60000)
+        def json = '{"data":{"books":null}}'.getBytes("UTF-8")
+        cache.put("key", json)
+        def cached = cache.get("key")
+
+        then:
+        cached.getJson() == json
+        new GZIPInputStream(new ByteArrayInputStream(cached.getGzippedJson())).bytes == json
+        cached.getEtag().startsWith('"')
+        cache.get("other") == null
+        cache.getMetrics()["hits"] == 1L
+        cache.getMetrics()["misses"] == 1L
+    }
+
+    def "expired_responses_are_not_returned"() {
+
+        when:
+        def cache = new ResponseCache(1000, -1)
+        cache.put("key", "{}".getBytes("UTF-8"))
+
+        then:
+        cache.get("key") == null
+        cache.getMetrics()["entries"] == 0
+    }
+
+    def "least_recently_used_responses_are_evicted_over_max_bytes"() {
+
+        when:
+        def cache = new ResponseCache(120, 60000)
+        cache.put("a", new byte[50])
+        cache.put("b", new byte[50])
+        cache.get("a")
+        cache.put("c", new byte[50])
+
+        then:
+        cache.get("a") != null
+        cache.get("b") == null
+        cache.get("c") != null
+        cache.getMetrics()["evictions"] == 1L
+    }
+
+    def "responses_are_only_gzipped_when_asked_for_and_that_counts_towards_max_bytes"() {
+
+        when:
+        def cache = new ResponseCache(1000, 60000)
+        def cached = cache.put("key", ('{"data":"' + ('x' * 500) + '"}').getBytes("UTF-8"))
+        def bytesBeforeGzip = cache.getMetrics()["bytes"]
+        def gzipped = cached.getGzippedJson()
+
+        then:
+        bytesBeforeGzip == 511L
+        cached.getGzippedJson().is(gzipped)
+        cache.getMetrics()["bytes"] == 511L + gzipped.length
+    }
+
+    def "if_none_match_handles_lists_weak_etags_and_star"() {
+
+        when:
+        def cached = new ResponseCache(1000, 60000).put("key", "{}".getBytes("UTF-8"))
+        def etag = cached.getEtag()
+
+        then:
+        cached.isMatchedBy(etag)
+        cached.isMatchedBy('W/' + etag)
+        cached.isMatchedBy('"other", ' + etag)
+        cached.isMatchedBy('"other",W/' + etag)
+        cached.isMatchedBy('*')
+        !cached.isMatchedBy('"other"')
+        !cached.isMatchedBy(etag.replace('"', ''))
+        !cached.isMatchedBy(null)
+    }
+
+    def "gzipping_a_response_that_has_left_the_cache_does_not_count_towards_max_bytes"() {
+
+        when:
+        def cache = new ResponseCache(1000, 60000)
+        def cached = cache.put("key", ('{"data":"' + ('x' * 500) + '"}').getBytes("UTF-8"))
+        cache.put("key", "{}".getBytes("UTF-8"))
+        def gzipped = cached.getGzippedJson()
+
+        then:
+        gzipped.length > 0
+        cache.getMetrics()["bytes"] == 2L
+    }
+
+    def "gzip_is_only_used_when_the_client_accepts_it"() {
+
+        expect:
+        ResponseCache.acceptsGzip(acceptEncoding) == expected
+
+        where:
+        acceptEncoding             | expected
+        "gzip"                     | true
+        "gzip, deflate, br"        | true
+        "deflate, GZIP;q=0.5"      | true
+        "x-gzip"                   | true
+        "*"                        | true
+        "gzip;q=0"                 | false
+        "gzip; q=0.0, deflate"     | false
+        "*;q=0"                    | false
+        "gzip;q=0, *"              | false
+        "deflate, br"              | false
+        "identity"                 | false
+        ""                         | false
+        null                       | false
+    }
+}
@@ -0,0 +1,71 @@
+package com.graphql.example.util
+
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+class SingleFlightTest extends Specification {
+
+    def "concurrent_calls_for_the_same_key_share_one_call"() {
+
+        when:
+        def singleFlight = new SingleFlight<String, String>()
+        def upstream = new CompletableFuture<String>()
+        int calls = 0
+        def call = { calls++; upstream }
+        def first = singleFlight.execute("url1", call)
+        def second = singleFlight.execute("url1", call)
+        def other = singleFlight.execute("url2", { CompletableFuture.completedFuture("other") })
+        upstream.complete("value")
+
+        then:
+        calls == 1
+        first.join() == "value"
+        second.join() == "value"
+        other.join() == "other"
+        singleFlight.getCoalescedCount() == 1
+        singleFlight.getCallCount() == 2
+    }
+
+    def "completed_calls_are_not_retained"() {
+
+        when:
+        def singleFlight = new SingleFlight<String, Integer>()
+        int calls = 0
+        def call = { CompletableFuture.completedFuture(++calls) }
+        def first = singleFlight.execute("url", call)
+        def second = singleFlight.execute("url", call)
+
+        then:
+        first.join() == 1
+        second.join() == 2
+        singleFlight.getInFlightCount() == 0
+    }
+
+    def "failures_are_shared_and_then_forgotten"() {
+
+        when:
+        def singleFlight = new SingleFlight<String, String>()
+        def upstream = new CompletableFuture<String>()
+        def first = singleFlight.execute("url", { upstream })
+        def second = singleFlight.execute("url", { upstream })
+        upstream.completeExceptionally(new IOException("bang"))
+        def third = singleFlight.execute("url", { CompletableFuture.completedFuture("ok") })
+
+        then:
+        first.isCompletedExceptionally()
+        second.isCompletedExceptionally()
+        third.join() == "ok"
+    }
+
+    def "a_call_that_throws_is_forgotten"() {
+
+        when:
+        def singleFlight = new SingleFlight<String, String>()
+        def first = singleFlight.execute("url", { throw new IllegalStateException("bang") })
+
+        then:
+        first.isCompletedExceptionally()
+        singleFlight.getInFlightCount() == 0
+    }
+}
@@ -0,0 +1,92 @@
+package com.graphql.example.util
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class TraceExporterTest extends Specification {
+
+    File directory = Files.createTempDirectory("traces").toFile()
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def mkTrace(String name) {
+        def trace = new ExecutionTrace(name)
+        trace.addSpan("execute", "graphql", trace.getExecutionStartNanos(), trace.getExecutionStartNanos() + 1000, [:])
+        trace
+    }
+
+    def waitForExports(TraceExporter exporter, long count) {
+        long deadline = System.currentTimeMillis() + 5000
+        while (exporter.getMetrics().exported < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+    }
+
+    def traceFiles() {
+        directory.listFiles().sort { it.name }
+    }
+
+    def "traces_are_appended_as_trace_event_json"() {
+
+        when:
+        def exporter = new TraceExporter(directory, 1_000_000, 5)
+        exporter.export(mkTrace("one"))
+        exporter.export(mkTrace("two"))
+        waitForExports(exporter, 2)
+        def files = traceFiles()
+        // the format allows a trailing comma and no closing bracket so close it off to parse it
+        def events = JsonKit.fromJson(files[0].text.replaceAll(/,\s*$/, "]"))
+
+        then:
+        files.size() == 1
+        files[0].name ==~ /trace-\d+-000000\.json/
+        events.findAll { it.name == "process_name" }.collect { it.args.name } == ["one", "two"]
+        events.count { it.name == "execute" } == 2
+    }
+
+    def "files_rotate_at_max_bytes_and_only_the_newest_are_kept"() {
+
+        when:
+        def exporter = new TraceExporter(directory, 100, 2)
+        (1..4).each { exporter.export(mkTrace("trace$it")) }
+        waitForExports(exporter, 4)
+        def files = traceFiles()
+
+        then:
+        // every trace is bigger than 100 bytes so each one starts a new file
+        files.size() == 2
+        files*.name.collect { it.replaceAll(/trace-\d+-/, "") } == ["000002.json", "000003.json"]
+        files[1].text.contains("trace4")
+    }
+
+    def "traces_are_dropped_rather_than_queued_when_the_exporter_is_full"() {
+
+        when:
+        def exporter = new TraceExporter(directory, 1_000_000, 5, 1)
+        def writing = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def blockingTrace = new ExecutionTrace("blocking") {
+            @Override
+            List<Map<String, Object>> toTraceEvents() {
+                writing.countDown()
+                release.await(5, TimeUnit.SECONDS)
+                super.toTraceEvents()
+            }
+        }
+        exporter.export(blockingTrace)
+        writing.await(5, TimeUnit.SECONDS)
+        exporter.export(mkTrace("queued"))
+        exporter.export(mkTrace("dropped"))
+        release.countDown()
+        waitForExports(exporter, 2)
+
+        then:
+        exporter.getMetrics() == [exported: 2L, dropped: 1L]
+        !traceFiles()[0].text.contains("dropped")
+    }
+}
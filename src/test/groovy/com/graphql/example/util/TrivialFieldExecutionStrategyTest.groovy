@@ -0,0 +1,92 @@
+package com.graphql.example.util
+
+import graphql.GraphQL
+import graphql.execution.AsyncExecutionStrategy
+import graphql.schema.DataFetcher
+import graphql.schema.idl.RuntimeWiring
+import graphql.schema.idl.SchemaGenerator
+import graphql.schema.idl.SchemaParser
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+import static graphql.schema.idl.TypeRuntimeWiring.newTypeWiring
+
+class TrivialFieldExecutionStrategyTest extends Specification {
+
+    def sdl = '''
+        type Query {
+            characters : [Character]
+        }
+
+        type Character {
+            name : String
+            born : String
+            titles : [String]
+            numberOfPages : Int
+            alive : String!
+            loud : String
+            father : Character
+        }
+    '''
+
+    def characters = [
+            [name: "Jon Snow", born: "In 283 AC", titles: ["Lord Commander"], numberOfPages: "12", alive: "yes", father: "Ned"],
+            [name: "Arya Stark", born: "", titles: [], numberOfPages: 7.0, alive: null],
+            [name: "Hodor", titles: ["Hodor", null], numberOfPages: "lots", alive: "yes"],
+    ]
+
+    def fathers = [Ned: [name: "Eddard Stark", alive: "no"]]
+
+    def execute(strategy, String query) {
+        def wiring = RuntimeWiring.newRuntimeWiring()
+                .type(newTypeWiring("Query").dataFetcher("characters", { env -> characters } as DataFetcher))
+                .type(newTypeWiring("Character")
+                        .dataFetcher("loud", { env -> env.getSource().name.toUpperCase() } as DataFetcher)
+                        .dataFetcher("father", { env -> CompletableFuture.completedFuture(fathers[env.getSource().father]) } as DataFetcher))
+                .build()
+        def schema = new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(sdl), wiring)
+        GraphQL.newGraphQL(schema).queryExecutionStrategy(strategy).build().execute(query)
+    }
+
+    def "results_are_the_same_as_the_default_strategy"() {
+
+        when:
+        def fast = execute(new TrivialFieldExecutionStrategy(), query)
+        def standard = execute(new AsyncExecutionStrategy(), query)
+
+        then:
+        fast.toSpecification() == standard.toSpecification()
+
+        where:
+        query << [
+                '{ characters { name born titles } }',
+                '{ characters { loud title : name father { name } titles } }',
+                '{ characters { name numberOfPages } }',
+                '{ characters { name alive } }',
+                '{ characters { ... on Character { name } name father { alive loud } } }',
+        ]
+    }
+
+    def "fields_keep_the_order_they_were_asked_for"() {
+
+        when:
+        def result = execute(new TrivialFieldExecutionStrategy(), '{ characters { name loud titles father { name } born } }')
+
+        then:
+        result.getData().characters[0].keySet() as List == ["name", "loud", "titles", "father", "born"]
+    }
+
+    def "one_strategy_can_be_shared_by_queries_against_separately_built_schemas"() {
+
+        when:
+        // execute builds a new schema every time, as the proxy does per request
+        def strategy = new TrivialFieldExecutionStrategy()
+        def first = execute(strategy, '{ characters { name loud father { name } } }')
+        def second = execute(strategy, '{ characters { loud name titles father { loud } } }')
+
+        then:
+        first.toSpecification() == execute(new AsyncExecutionStrategy(), '{ characters { name loud father { name } } }').toSpecification()
+        second.toSpecification() == execute(new AsyncExecutionStrategy(), '{ characters { loud name titles father { loud } } }').toSpecification()
+    }
+}
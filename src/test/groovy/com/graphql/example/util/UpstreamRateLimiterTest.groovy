@@ -0,0 +1,78 @@
+package com.graphql.example.util
+
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static com.graphql.example.util.UpstreamRateLimiter.Lane.BACKGROUND
+import static com.graphql.example.util.UpstreamRateLimiter.Lane.INTERACTIVE
+import static com.graphql.example.util.UpstreamRateLimiter.Lane.PAGE
+
+class UpstreamRateLimiterTest extends Specification {
+
+    def executor = Executors.newSingleThreadScheduledExecutor()
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "calls_within_the_burst_go_straight_away_and_the_rest_wait"() {
+
+        when:
+        def rateLimiter = new UpstreamRateLimiter(1, 2, 10, executor)
+        def permits = (1..3).collect { rateLimiter.acquire(INTERACTIVE) }
+
+        then:
+        permits[0].isDone()
+        permits[1].isDone()
+        !permits[2].isDone()
+        rateLimiter.getMetrics().interactive.queued == 1
+    }
+
+    def "waiting_calls_are_released_highest_lane_first"() {
+
+        when:
+        def rateLimiter = new UpstreamRateLimiter(20, 1, 10, executor)
+        def order = new CopyOnWriteArrayList()
+        rateLimiter.acquire(BACKGROUND).thenRun { order.add("first") }
+        rateLimiter.acquire(BACKGROUND).thenRun { order.add("background") }
+        rateLimiter.acquire(PAGE).thenRun { order.add("page") }
+        rateLimiter.acquire(INTERACTIVE).thenRun { order.add("interactive") }
+            .get(2, TimeUnit.SECONDS)
+        Thread.sleep(200)
+
+        then:
+        order == ["first", "interactive", "page", "background"]
+        rateLimiter.getMetrics().interactive.queueWaitP50Ms >= 0
+    }
+
+    def "cancelled_calls_give_up_their_place_without_a_token"() {
+
+        when:
+        def rateLimiter = new UpstreamRateLimiter(20, 1, 10, executor)
+        rateLimiter.acquire(INTERACTIVE)
+        def cancelled = rateLimiter.acquire(INTERACTIVE)
+        def waiting = rateLimiter.acquire(PAGE)
+        cancelled.cancel(false)
+        waiting.get(2, TimeUnit.SECONDS)
+
+        then:
+        rateLimiter.getMetrics().interactive.granted == 1
+        rateLimiter.getMetrics().page.granted == 1
+    }
+
+    def "throttling_pauses_every_lane_until_retry_after"() {
+
+        when:
+        def rateLimiter = new UpstreamRateLimiter(1000, 10, 10, executor)
+        rateLimiter.throttled(300)
+        long startMs = System.currentTimeMillis()
+        rateLimiter.acquire(INTERACTIVE).get(2, TimeUnit.SECONDS)
+
+        then:
+        System.currentTimeMillis() - startMs >= 250
+        rateLimiter.getMetrics().throttled == 1
+    }
+}